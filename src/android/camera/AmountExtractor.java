@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads bill dates and amounts found next to fixed captions ("Due date", "Total due", ...)
+ * without a dictionary.
+ * <p/>
+ * The captions and what kind of value follows each of them come from a table of {@link Field}s,
+ * read from the raw resource {@code ocr_amount_fields}.  Every component of the frame is matched,
+ * through its normalized text, against the captions of all the fields at once with a
+ * {@link KeywordAutomaton}, so short captions must stand as words as dictionary keywords do.  The
+ * first field of the table that matches a component wins, so more specific captions must come
+ * before the captions they contain.  The value of a field is then looked for
+ * in the caption line itself, in the following lines of its block, and finally in the same line
+ * of the block level with it on its right.
+ * <p/>
+ * The first value read for a field is kept for the rest of the session, see {@link #getValue}.
+ */
+final class AmountExtractor implements FrameExtractor {
+    private static final String TAG = AmountExtractor.class.getSimpleName();
+
+    private static final String TABLE = "ocr_amount_fields";
+
+    /** The caption line itself is the value. */
+    static final int KIND_LINE = 0;
+    /** The value is a line naming a month. */
+    static final int KIND_DATE = 1;
+    /** The value is a line starting with a dollar sign. */
+    static final int KIND_AMOUNT = 2;
+
+    private static final String[] KIND_NAMES = {"line", "date", "amount"};
+
+    /**
+     * A row of the table: a field, the captions that introduce it and the kind of its value.
+     */
+    static final class Field {
+        final String name;
+        final int kind;
+        final String[] captions;
+
+        /**
+         * @param captions captions any of which introduces the field, matched case-insensitively
+         */
+        Field(String name, int kind, String... captions) {
+            this.name = name;
+            this.kind = kind;
+            this.captions = captions;
+        }
+    }
+
+    // Guarded by the class.  The table read from the resources, shared by every session.
+    private static Field[] sFields;
+
+    private static final String[] MONTHS = {
+            "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+    };
+
+    private final Field[] mFields;
+    private final KeywordAutomaton mCaptions;
+    // Lowest field whose caption was found in the component being matched, or -1.
+    private int mMatchedField;
+    private final KeywordAutomaton.Listener mCaptionListener = new KeywordAutomaton.Listener() {
+        @Override
+        public void onKeyword(int field, int caption, int offset) {
+            if (mMatchedField < 0 || field < mMatchedField) mMatchedField = field;
+        }
+    };
+    // Value read for each field in the current frame, or null.
+    private final String[] mFound;
+    // First value read for each field in the session, or null.
+    private final String[] mValues;
+
+    AmountExtractor(Field[] fields) {
+        mFields = fields;
+        String[][] captions = new String[fields.length][];
+        for (int f = 0; f < fields.length; f++) {
+            captions[f] = fields[f].captions;
+        }
+        mCaptions = new KeywordAutomaton(captions);
+        mFound = new String[fields.length];
+        mValues = new String[fields.length];
+    }
+
+    /**
+     * Returns the fields of the table in the resources, reading it the first time.  Rows that
+     * cannot be parsed are logged and skipped.
+     */
+    static synchronized Field[] loadFields(Context context) {
+        if (sFields != null) return sFields;
+
+        List<Field> fields = new ArrayList<Field>();
+        int id = context.getResources().getIdentifier(TABLE, "raw", context.getPackageName());
+        if (id == 0) {
+            Log.w(TAG, "No amount field table: " + TABLE);
+            return sFields = new Field[0];
+        }
+
+        InputStream in = context.getResources().openRawResource(id);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                Field field = parseField(line);
+                if (field == null) {
+                    Log.w(TAG, "Ignoring invalid amount field in " + TABLE + ": " + line);
+                } else {
+                    fields.add(field);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read amount field table " + TABLE, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+        return sFields = fields.toArray(new Field[fields.size()]);
+    }
+
+    /**
+     * Parses a row of the table, {@code name | kind | caption, caption...}.
+     *
+     * @return the field, or null if the row is malformed
+     */
+    static Field parseField(String line) {
+        String[] columns = line.split("\\|");
+        if (columns.length != 3) return null;
+
+        String name = columns[0].trim();
+        int kind = Arrays.asList(KIND_NAMES).indexOf(columns[1].trim().toLowerCase(Locale.US));
+        List<String> captions = new ArrayList<String>();
+        for (String caption : columns[2].split(",")) {
+            if (!caption.trim().isEmpty()) captions.add(caption.trim());
+        }
+        if (name.isEmpty() || kind < 0 || captions.isEmpty()) return null;
+        return new Field(name, kind, captions.toArray(new String[captions.size()]));
+    }
+
+    Field[] getFields() {
+        return mFields;
+    }
+
+    @Override
+    public void extract(SparseArray<TextBlock> blocks, ComponentIndex components, boolean[] usedBlocks) {
+        Arrays.fill(mFound, null);
+
+        for (int b = 0; b < components.blockCount(); b++) {
+            int count = components.componentCount(b);
+            for (int j = 0; j < count; j++) {
+                int id = components.id(b, j);
+                int f = matchField(components, id);
+                if (f < 0) continue;
+
+                usedBlocks[b] = true;
+                String value = readValue(mFields[f].kind, components, usedBlocks, b, j, count);
+                if (value != null) mFound[f] = value;
+            }
+        }
+
+        for (int f = 0; f < mFound.length; f++) {
+            if (mFound[f] != null && (mValues[f] == null || mValues[f].isEmpty())) {
+                mValues[f] = mFound[f];
+            }
+        }
+    }
+
+    /**
+     * Returns the value of a field, in table order, or null if it has not been read yet.
+     */
+    String getValue(int field) {
+        return mValues[field];
+    }
+
+    /**
+     * Returns the index of the first field one of whose captions the component contains, or -1.
+     */
+    private int matchField(ComponentIndex components, int id) {
+        mMatchedField = -1;
+        mCaptions.scan(components.normalized(id), mCaptionListener);
+        return mMatchedField;
+    }
+
+    /**
+     * Reads the value of a field whose caption is line {@code j} of block {@code b}.
+     *
+     * @return the value, or null if there is none
+     */
+    private String readValue(int kind, ComponentIndex components, boolean[] usedBlocks,
+                             int b, int j, int count) {
+        int id = components.id(b, j);
+        if (kind == KIND_LINE || (kind == KIND_DATE && isDate(components, id))) {
+            return components.text(id).getValue();
+        }
+
+        for (int k = j + 1; k < count; k++) {
+            int other = components.id(b, k);
+            if (isValue(kind, components, other)) return components.text(other).getValue();
+        }
+
+        int right = components.findBlockRightOf(b);
+        if (right < 0) return null;
+        usedBlocks[right] = true;
+
+        if (j >= components.componentCount(right)) return null;
+        int other = components.id(right, j);
+        return isValue(kind, components, other) ? components.text(other).getValue() : null;
+    }
+
+    private boolean isValue(int kind, ComponentIndex components, int id) {
+        return kind == KIND_DATE ? isDate(components, id) : isAmount(components, id);
+    }
+
+    private static boolean isDate(ComponentIndex components, int id) {
+        if ((components.flags(id) & ComponentIndex.FLAG_HAS_LETTER) == 0) return false;
+        String lower = components.normalized(id);
+        for (String month : MONTHS) {
+            if (lower.contains(month)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isAmount(ComponentIndex components, int id) {
+        String normalized = components.normalized(id);
+        return !normalized.isEmpty() && normalized.charAt(0) == '$';
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Follows TextBlocks from frame to frame and gives each one a stable id.
+ * <p/>
+ * A block of the new frame continues the track of the previous frame it overlaps best, as long
+ * as the boxes overlap enough (intersection over union) and the texts are similar enough.
+ * Tracks that are not seen for a few frames are dropped.  Each track carries what the processor
+ * learned from scanning its block, and the values read from it, which stay valid for as long as
+ * the block's text is the same, so only new or changed blocks need to be scanned again.
+ * <p/>
+ * Not thread safe; a tracker belongs to the thread processing the frames.
+ */
+final class BlockTracker {
+
+    static final float MIN_IOU = 0.3f;
+    static final float MIN_TEXT_SIMILARITY = 0.6f;
+    static final int MAX_MISSED_FRAMES = 3;
+
+    /** Value of a scan result that has not been computed for the current text. */
+    static final int UNKNOWN = -2;
+
+    /**
+     * A block followed across frames.
+     */
+    static final class Track {
+        int id;
+        final Rect box = new Rect();
+        String text;
+        int missed;
+        boolean matched;
+
+        // Scan results for the components of the block, valid while the text is unchanged.
+        private String mScannedText;
+        private int[] mKeywordHits = new int[8];
+        int postalComponent = UNKNOWN;
+
+        // Values read for the dictionary entries whose keyword is in the block, by entry: the
+        // strategy that found it, the component it was read from, and the value with its
+        // pattern, whether or not it was taken.  Also valid while the text is unchanged.
+        private int[] mValueStrategies = new int[0];
+        private int[] mValueComponents = new int[0];
+        private String[] mValues = new String[0];
+        private int[] mValuePatterns = new int[0];
+
+        /**
+         * Returns true if the cached scan results were computed for the track's current text.
+         */
+        boolean isScanned() {
+            return mScannedText != null && mScannedText.equals(text);
+        }
+
+        /**
+         * Forgets the scan results and prepares room for a block of the given size and for the
+         * given number of dictionary entries.
+         */
+        void startScan(int components, int entries) {
+            if (mKeywordHits.length < components) {
+                mKeywordHits = new int[Math.max(components, 2 * mKeywordHits.length)];
+            }
+            Arrays.fill(mKeywordHits, 0, components, UNKNOWN);
+            postalComponent = UNKNOWN;
+            if (mValueStrategies.length < entries) {
+                mValueStrategies = new int[entries];
+                mValueComponents = new int[entries];
+                mValues = new String[entries];
+                mValuePatterns = new int[entries];
+            }
+            Arrays.fill(mValueStrategies, UNKNOWN);
+            Arrays.fill(mValues, null);
+            mScannedText = text;
+        }
+
+        int keywordHit(int component) {
+            return mKeywordHits[component];
+        }
+
+        void setKeywordHit(int component, int hit) {
+            mKeywordHits[component] = hit;
+        }
+
+        /**
+         * Returns the strategy that found the value of an entry in this block, or
+         * {@link #UNKNOWN} if none has since the text last changed.
+         */
+        int valueStrategy(int entry) {
+            return mValueStrategies[entry];
+        }
+
+        int valueComponent(int entry) {
+            return mValueComponents[entry];
+        }
+
+        String value(int entry) {
+            return mValues[entry];
+        }
+
+        int valuePattern(int entry) {
+            return mValuePatterns[entry];
+        }
+
+        /**
+         * Keeps the value an entry read from this block.  Entries only write their own slot, so
+         * different entries may do so from different threads.
+         */
+        void setValue(int entry, int strategy, int component, String value, int pattern) {
+            mValueStrategies[entry] = strategy;
+            mValueComponents[entry] = component;
+            mValues[entry] = value;
+            mValuePatterns[entry] = pattern;
+        }
+    }
+
+    private final ArrayList<Track> mTracks = new ArrayList<Track>();
+    private final ArrayList<Track> mSpare = new ArrayList<Track>();
+    private Track[] mFrameTracks = new Track[16];
+    private final Rect mBox = new Rect();
+    private int mNextId = 1;
+
+    /**
+     * Matches the blocks of a new frame against the current tracks.  The index must already
+     * have been built for the same blocks.
+     */
+    void update(SparseArray<TextBlock> blocks, ComponentIndex index) {
+        int count = blocks.size();
+        if (mFrameTracks.length < count) {
+            mFrameTracks = new Track[2 * count];
+        }
+        for (int t = 0; t < mTracks.size(); t++) {
+            mTracks.get(t).matched = false;
+        }
+
+        for (int b = 0; b < count; b++) {
+            String text = blocks.valueAt(b).getValue();
+            index.blockBounds(b, mBox);
+
+            Track best = null;
+            float bestScore = 0;
+            for (int t = 0; t < mTracks.size(); t++) {
+                Track track = mTracks.get(t);
+                if (track.matched) continue;
+
+                float iou = iou(track.box, mBox);
+                if (iou < MIN_IOU) continue;
+                float similarity = similarity(track.text, text);
+                if (similarity < MIN_TEXT_SIMILARITY) continue;
+
+                if (iou + similarity > bestScore) {
+                    best = track;
+                    bestScore = iou + similarity;
+                }
+            }
+
+            if (best == null) {
+                best = mSpare.isEmpty() ? new Track() : mSpare.remove(mSpare.size() - 1);
+                best.id = mNextId++;
+                best.mScannedText = null;
+                mTracks.add(best);
+            }
+            best.matched = true;
+            best.missed = 0;
+            best.text = text;
+            best.box.set(mBox);
+            mFrameTracks[b] = best;
+        }
+        Arrays.fill(mFrameTracks, count, mFrameTracks.length, null);
+
+        for (int t = mTracks.size() - 1; t >= 0; t--) {
+            Track track = mTracks.get(t);
+            if (track.matched || ++track.missed <= MAX_MISSED_FRAMES) continue;
+
+            // Swap with the last track so removal does not shift the list.
+            int last = mTracks.size() - 1;
+            mTracks.set(t, mTracks.get(last));
+            mTracks.remove(last);
+            track.text = null;
+            mSpare.add(track);
+        }
+    }
+
+    /**
+     * Returns the track of the block at the given position of the last frame.
+     */
+    Track track(int block) {
+        return mFrameTracks[block];
+    }
+
+    private static float iou(Rect a, Rect b) {
+        int left = Math.max(a.left, b.left);
+        int top = Math.max(a.top, b.top);
+        int right = Math.min(a.right, b.right);
+        int bottom = Math.min(a.bottom, b.bottom);
+        if (right <= left || bottom <= top) return 0;
+
+        long intersection = (long) (right - left) * (bottom - top);
+        long union = (long) a.width() * a.height() + (long) b.width() * b.height() - intersection;
+        return union <= 0 ? 0 : (float) intersection / union;
+    }
+
+    /**
+     * Share of the longer text covered by the prefix and suffix both texts have in common.  OCR
+     * noise usually changes a few characters in place, which this tolerates in linear time.
+     */
+    static float similarity(String a, String b) {
+        if (a.equals(b)) return 1;
+
+        int lengthA = a.length(), lengthB = b.length();
+        int min = Math.min(lengthA, lengthB);
+        int prefix = 0;
+        while (prefix < min && a.charAt(prefix) == b.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < min - prefix
+                && a.charAt(lengthA - 1 - suffix) == b.charAt(lengthB - 1 - suffix)) {
+            suffix++;
+        }
+        return (float) (prefix + suffix) / Math.max(lengthA, lengthB);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+/**
+ * A CharSequence that gives up after a fixed number of character reads, so that a regex which
+ * backtracks catastrophically on some input is cut short instead of stalling the thread.
+ * <p/>
+ * {@link java.util.regex.Matcher} reads its input only through {@link #charAt(int)}, so the reads
+ * are a fair measure of the steps it takes.  When the budget runs out, {@link #charAt(int)}
+ * throws {@link Exhausted}, which the caller catches around the match.
+ */
+final class BudgetedSequence implements CharSequence {
+
+    /**
+     * Thrown when a budget runs out.  A single instance without a stack trace is reused, since it
+     * only unwinds the matcher.
+     */
+    static final class Exhausted extends RuntimeException {
+        private Exhausted() {
+            super("Match step budget exhausted");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final Exhausted EXHAUSTED = new Exhausted();
+
+    private CharSequence mText = "";
+    private int mRemaining;
+
+    /**
+     * Points this sequence at a new input, with a fresh budget of {@code steps} reads.
+     */
+    BudgetedSequence reset(CharSequence text, int steps) {
+        mText = text;
+        mRemaining = steps;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return mText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--mRemaining < 0) throw EXHAUSTED;
+        return mText.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mText.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return mText.toString();
+    }
+}
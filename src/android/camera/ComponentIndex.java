@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.text.Text;
+import com.google.android.gms.vision.text.TextBlock;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index over the components (lines) of every TextBlock of one frame.
+ * <p/>
+ * Components get a frame-wide id in block order.  Their boxes are kept in primitive arrays and
+ * sorted by top edge within each block, and the components of all blocks are grouped into rows,
+ * so the neighbour queries used to find a value next to its keyword are a lookup plus a short
+ * scan, and allocate nothing.  The arrays grow to the largest frame seen and are reused by
+ * {@link #build}.
+ * <p/>
+ * Rows are found by a sweep down the frame in order of the components' vertical centres.  A
+ * component joins the current row when its centre is within {@link #ROW_TOLERANCE} times the
+ * glyph height of the row's centre, so the grouping scales with the text rather than with the
+ * preview resolution.
+ * <p/>
+ * The index also holds a normalized view of each component's text, see {@link #normalized},
+ * computed at most once per frame so that the extractors do not each lower-case and trim the
+ * same strings again.
+ * <p/>
+ * Not thread safe; an index belongs to the thread processing the frame.  Once
+ * {@link #analyzeAll()} has run, the fields of the frame may read it from several threads.
+ */
+final class ComponentIndex {
+
+    /**
+     * Largest distance between the vertical centres of a component and of a row, as a fraction
+     * of the taller of their heights, for the component to join the row.
+     */
+    static final float ROW_TOLERANCE = 0.5f;
+
+    /** Boxes are snapped to a grid of 2^FINGERPRINT_GRID_SHIFT pixels for {@link #fingerprint()}. */
+    static final int FINGERPRINT_GRID_SHIFT = 4;
+
+    /** Set in {@link #flags} for text holding a digit. */
+    static final int FLAG_HAS_DIGIT = 1;
+    /** Set in {@link #flags} for text holding a letter. */
+    static final int FLAG_HAS_LETTER = 1 << 1;
+    /** Set in {@link #flags} for non-empty text of only digits, ',', '.' and whitespace. */
+    static final int FLAG_NUMERIC = 1 << 2;
+    /** Set in {@link #flags} for non-empty text of only ASCII letters and digits, ',', '.' and whitespace. */
+    static final int FLAG_ADDRESS = 1 << 3;
+
+    private Text[] mTexts = new Text[64];
+    // Normalized text and flags of each component, or null until first asked for.
+    private String[] mNormalized = new String[64];
+    private int[] mFlags = new int[64];
+    private final StringBuilder mScratch = new StringBuilder();
+    private int[] mLeft = new int[64];
+    private int[] mTop = new int[64];
+    private int[] mRight = new int[64];
+    private int[] mBottom = new int[64];
+    private int[] mBlockStart = new int[17];
+
+    // (top << 32 | id), sorted within each block's id range.
+    private long[] mByTopInBlock = new long[64];
+    // (left << 32 | id), row after row; row r takes [mRowStart[r], mRowStart[r + 1]).
+    private long[] mRowMembers = new long[64];
+    private int[] mRowStart = new int[65];
+    private int[] mRowOf = new int[64];
+    private int mRowCount;
+
+    private int mCount;
+    private int mBlockCount;
+
+    /**
+     * Indexes the components of the supplied blocks, replacing the previous frame.
+     */
+    void build(SparseArray<TextBlock> blocks) {
+        mBlockCount = blocks.size();
+        if (mBlockStart.length < mBlockCount + 1) {
+            mBlockStart = new int[2 * mBlockCount + 1];
+        }
+
+        mCount = 0;
+        for (int b = 0; b < mBlockCount; b++) {
+            mBlockStart[b] = mCount;
+            List<? extends Text> components = blocks.valueAt(b).getComponents();
+            ensureCapacity(mCount + components.size());
+            for (int j = 0; j < components.size(); j++) {
+                Text text = components.get(j);
+                Rect rc = text.getBoundingBox();
+                mTexts[mCount] = text;
+                mLeft[mCount] = rc.left;
+                mTop[mCount] = rc.top;
+                mRight[mCount] = rc.right;
+                mBottom[mCount] = rc.bottom;
+                mByTopInBlock[mCount] = key(rc.top, mCount);
+                mCount++;
+            }
+        }
+        mBlockStart[mBlockCount] = mCount;
+        Arrays.fill(mTexts, mCount, mTexts.length, null);
+        Arrays.fill(mNormalized, null);
+
+        for (int b = 0; b < mBlockCount; b++) {
+            sort(mByTopInBlock, mBlockStart[b], mBlockStart[b + 1]);
+        }
+        buildRows();
+    }
+
+    /**
+     * Sweeps the components in order of their vertical centres, cutting a new row whenever one
+     * is too far below the row being built, then sorts each row from left to right.
+     */
+    private void buildRows() {
+        // Twice the centre, to stay in integers.
+        for (int i = 0; i < mCount; i++) {
+            mRowMembers[i] = key(mTop[i] + mBottom[i], i);
+        }
+        sort(mRowMembers, 0, mCount);
+
+        mRowCount = 0;
+        long centreSum = 0;
+        long heightSum = 0;
+        int size = 0;
+        for (int i = 0; i < mCount; i++) {
+            int id = idOf(mRowMembers[i]);
+            int centre2 = mTop[id] + mBottom[id];
+            int height = mBottom[id] - mTop[id];
+            if (size > 0) {
+                float rowCentre2 = (float) centreSum / size;
+                float rowHeight = (float) heightSum / size;
+                if (centre2 - rowCentre2 > 2 * ROW_TOLERANCE * Math.max(rowHeight, height)) size = 0;
+            }
+            if (size == 0) {
+                mRowStart[mRowCount++] = i;
+                centreSum = 0;
+                heightSum = 0;
+            }
+            centreSum += centre2;
+            heightSum += height;
+            size++;
+            mRowOf[id] = mRowCount - 1;
+            mRowMembers[i] = key(mLeft[id], id);
+        }
+        mRowStart[mRowCount] = mCount;
+
+        for (int r = 0; r < mRowCount; r++) {
+            sort(mRowMembers, mRowStart[r], mRowStart[r + 1]);
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns a 64-bit hash of the indexed frame: how the components are split into blocks, their
+     * text, and their boxes snapped to a coarse grid so that a few pixels of jitter between
+     * frames of a document held still do not change it.
+     */
+    long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, mBlockCount);
+        for (int b = 0; b < mBlockCount; b++) {
+            hash = mix(hash, mBlockStart[b + 1] - mBlockStart[b]);
+        }
+        for (int i = 0; i < mCount; i++) {
+            hash = mix(hash, mTexts[i].getValue().hashCode());
+            hash = mix(hash, mLeft[i] >> FINGERPRINT_GRID_SHIFT);
+            hash = mix(hash, mTop[i] >> FINGERPRINT_GRID_SHIFT);
+            hash = mix(hash, mRight[i] >> FINGERPRINT_GRID_SHIFT);
+            hash = mix(hash, mBottom[i] >> FINGERPRINT_GRID_SHIFT);
+        }
+        return hash;
+    }
+
+    int blockCount() {
+        return mBlockCount;
+    }
+
+    int componentCount(int block) {
+        return mBlockStart[block + 1] - mBlockStart[block];
+    }
+
+    /**
+     * Sets {@code out} to the union of the boxes of a block's components, or to an empty
+     * rectangle if the block has none.
+     */
+    void blockBounds(int block, Rect out) {
+        int start = mBlockStart[block];
+        int end = mBlockStart[block + 1];
+        if (start == end) {
+            out.set(0, 0, 0, 0);
+            return;
+        }
+        int left = mLeft[start], top = mTop[start], right = mRight[start], bottom = mBottom[start];
+        for (int i = start + 1; i < end; i++) {
+            left = Math.min(left, mLeft[i]);
+            top = Math.min(top, mTop[i]);
+            right = Math.max(right, mRight[i]);
+            bottom = Math.max(bottom, mBottom[i]);
+        }
+        out.set(left, top, right, bottom);
+    }
+
+    /**
+     * Returns the frame-wide id of a component given its block and its index in that block.
+     */
+    int id(int block, int component) {
+        return mBlockStart[block] + component;
+    }
+
+    Text text(int id) {
+        return mTexts[id];
+    }
+
+    /**
+     * Returns the text of a component lower-cased, trimmed and with every run of whitespace
+     * replaced by a single space, as {@link #normalize(String)} would.
+     */
+    String normalized(int id) {
+        if (mNormalized[id] == null) analyze(id);
+        return mNormalized[id];
+    }
+
+    /**
+     * Computes the normalized view of every component now rather than on first use, after which
+     * the index may be read from several threads at once.
+     */
+    void analyzeAll() {
+        for (int id = 0; id < mCount; id++) {
+            if (mNormalized[id] == null) analyze(id);
+        }
+    }
+
+    /**
+     * Returns the FLAG_ bits describing the characters of a component's text.
+     */
+    int flags(int id) {
+        if (mNormalized[id] == null) analyze(id);
+        return mFlags[id];
+    }
+
+    int top(int id) {
+        return mTop[id];
+    }
+
+    int left(int id) {
+        return mLeft[id];
+    }
+
+    int right(int id) {
+        return mRight[id];
+    }
+
+    int bottom(int id) {
+        return mBottom[id];
+    }
+
+    /**
+     * Returns the row of a component.  Rows are numbered from the top of the frame.
+     */
+    int row(int id) {
+        return mRowOf[id];
+    }
+
+    /**
+     * Finds the nearest component, in any block, on the same row as and to the right of the
+     * given one.  Ties go to the lower id.
+     *
+     * @return the id of the component, or -1 if there is none
+     */
+    int findRightOf(int id) {
+        int row = mRowOf[id];
+        int right = mRight[id];
+        for (int i = mRowStart[row]; i < mRowStart[row + 1]; i++) {
+            int other = idOf(mRowMembers[i]);
+            if (mLeft[other] >= right && other != id) return other;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the nearest block to the right of the given one that is level with it: its first
+     * and last components are on the rows of the given block's first and last components.
+     *
+     * @return the position of the block, or -1 if there is none
+     */
+    int findBlockRightOf(int block) {
+        int first = mBlockStart[block];
+        int last = mBlockStart[block + 1] - 1;
+        if (last < first) return -1;
+
+        int right = mRight[first];
+        for (int i = first + 1; i <= last; i++) {
+            right = Math.max(right, mRight[i]);
+        }
+
+        int row = mRowOf[first];
+        int found = -1;
+        int foundLeft = Integer.MAX_VALUE;
+        for (int i = mRowStart[row]; i < mRowStart[row + 1]; i++) {
+            int other = idOf(mRowMembers[i]);
+            int otherBlock = blockOf(other);
+            if (otherBlock == block || other != mBlockStart[otherBlock]) continue;
+            int otherLast = mBlockStart[otherBlock + 1] - 1;
+            if (mRowOf[otherLast] != mRowOf[last]) continue;
+
+            int left = mLeft[other];
+            for (int j = other + 1; j <= otherLast; j++) {
+                left = Math.min(left, mLeft[j]);
+            }
+            if (left >= right && left < foundLeft) {
+                found = otherBlock;
+                foundLeft = left;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the highest component of the same block that starts below the top of the given one.
+     * Ties go to the lower id.
+     *
+     * @return the id of the component, or -1 if there is none
+     */
+    int findBelow(int id) {
+        int block = blockOf(id);
+        int end = mBlockStart[block + 1];
+        int i = lowerBound(mByTopInBlock, mBlockStart[block], end, mTop[id] + 1);
+        return i < end ? idOf(mByTopInBlock[i]) : -1;
+    }
+
+    private int blockOf(int id) {
+        int low = 0, high = mBlockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mBlockStart[mid] <= id) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void analyze(int id) {
+        String value = mTexts[id].getValue();
+        int flags = value.isEmpty() ? 0 : FLAG_NUMERIC | FLAG_ADDRESS;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean space = isRegexSpace(c);
+            boolean digit = c >= '0' && c <= '9';
+            boolean asciiLetter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (digit) flags |= FLAG_HAS_DIGIT;
+            if (Character.isLetter(c)) flags |= FLAG_HAS_LETTER;
+            if (!digit && !space && c != ',' && c != '.') {
+                flags &= ~FLAG_NUMERIC;
+                if (!asciiLetter) flags &= ~FLAG_ADDRESS;
+            }
+        }
+        mFlags[id] = flags;
+        mNormalized[id] = normalize(value, mScratch);
+    }
+
+    /**
+     * Lower-cases the text, trims it, and replaces every run of whitespace inside it by a single
+     * space.
+     */
+    static String normalize(String text) {
+        return normalize(text, new StringBuilder(text.length()));
+    }
+
+    private static String normalize(String text, StringBuilder out) {
+        out.setLength(0);
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c <= ' ') {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) out.append(' ');
+            space = false;
+            out.append(Character.toLowerCase(c));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Maps an offset just past a character of the normalized text back to the offset just past
+     * the character of the original text it came from.  A space standing for a run of whitespace
+     * comes from the first character of the run.
+     */
+    static int rawEnd(String text, int normalizedEnd) {
+        if (normalizedEnd <= 0) return 0;
+        int produced = 0;
+        int spaceAt = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c <= ' ') {
+                if (produced > 0 && spaceAt < 0) spaceAt = i;
+                continue;
+            }
+            if (spaceAt >= 0 && ++produced == normalizedEnd) return spaceAt + 1;
+            spaceAt = -1;
+            if (++produced == normalizedEnd) return i + 1;
+        }
+        return text.length();
+    }
+
+    /**
+     * Whether the character is matched by {@code \s} in java.util.regex.
+     */
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mTexts.length) return;
+        int size = Math.max(capacity, 2 * mTexts.length);
+        mTexts = Arrays.copyOf(mTexts, size);
+        mNormalized = new String[size];
+        mFlags = new int[size];
+        mLeft = Arrays.copyOf(mLeft, size);
+        mTop = Arrays.copyOf(mTop, size);
+        mRight = Arrays.copyOf(mRight, size);
+        mBottom = Arrays.copyOf(mBottom, size);
+        mByTopInBlock = Arrays.copyOf(mByTopInBlock, size);
+        mRowMembers = new long[size];
+        mRowStart = new int[size + 1];
+        mRowOf = new int[size];
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private static long key(int top, int id) {
+        return ((long) top << 32) | id;
+    }
+
+    private static int idOf(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Returns the first index in [from, to) whose key has a top edge of at least the given one.
+     */
+    private static int lowerBound(long[] keys, int from, int to, int top) {
+        long target = key(top, 0);
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Insertion sort; components arrive roughly top to bottom, so this is close to linear and,
+     * unlike {@link Arrays#sort(long[])}, never allocates.
+     */
+    private static void sort(long[] keys, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            long key = keys[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            keys[j + 1] = key;
+        }
+    }
+}
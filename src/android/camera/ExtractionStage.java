@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+
+/**
+ * Runs a processor on its own thread instead of the detector's.
+ * <p/>
+ * The detector calls {@link #receiveDetections} on the camera source's frame processing thread.
+ * This stage only snapshots the detections and returns, so the detector can start on the next
+ * frame while the wrapped processor extracts fields from this one on a second core.  If the
+ * processor falls behind, snapshots it has not started yet are replaced by newer ones: only the
+ * latest frame is ever worth extracting.
+ * <p/>
+ * Snapshots are copied into a few arrays that are recycled from frame to frame, and handed to
+ * the processor as they are, so the stage allocates nothing once its arrays have grown to the
+ * number of blocks in a frame.
+ */
+final class ExtractionStage<T> implements Detector.Processor<T> {
+    private static final String TAG = ExtractionStage.class.getSimpleName();
+
+    /**
+     * The processor run by the stage.  It is given the items detected in a frame rather than the
+     * detections, and must not keep the array once it returns.
+     */
+    interface Consumer<T> {
+        void consume(SparseArray<T> items);
+
+        void release();
+    }
+
+    // One snapshot is being filled, one may be pending and one may be extracted from.
+    private static final int SNAPSHOTS = 3;
+
+    private final Consumer<T> mDelegate;
+    // The extraction thread, until the stage is released.
+    private Thread mThread;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private final SparseArray<T>[] mFree;
+    private int mFreeCount;
+    private SparseArray<T> mPending;
+    private boolean mActive = true;
+    private long mSuperseded;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                SparseArray<T> items;
+                synchronized (mLock) {
+                    while (mActive && mPending == null) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            Log.d(TAG, "Extraction thread interrupted.");
+                            mActive = false;
+                        }
+                    }
+                    if (!mActive) break;
+                    items = mPending;
+                    mPending = null;
+                }
+
+                try {
+                    mDelegate.consume(items);
+                } catch (Throwable t) {
+                    Log.e(TAG, "Exception thrown from processor.", t);
+                }
+                synchronized (mLock) {
+                    mFree[mFreeCount++] = items;
+                }
+            }
+            mDelegate.release();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    ExtractionStage(Consumer<T> delegate) {
+        mDelegate = delegate;
+        mFree = new SparseArray[SNAPSHOTS];
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            mFree[i] = new SparseArray<T>();
+        }
+        mFreeCount = SNAPSHOTS;
+
+        mThread = new Thread(mDrain, "OcrExtraction");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Hands a snapshot of the detections to the extraction thread.
+     */
+    @Override
+    public void receiveDetections(Detector.Detections<T> detections) {
+        SparseArray<T> snapshot;
+        synchronized (mLock) {
+            if (!mActive) return;
+            snapshot = mFree[--mFreeCount];
+        }
+
+        // The detector only calls from one thread, so no one else fills snapshots meanwhile.
+        SparseArray<T> items = detections.getDetectedItems();
+        snapshot.clear();
+        for (int i = 0; i < items.size(); i++) {
+            snapshot.append(items.keyAt(i), items.valueAt(i));
+        }
+
+        synchronized (mLock) {
+            if (mPending != null) {
+                mFree[mFreeCount++] = mPending;
+                mSuperseded++;
+            }
+            mPending = snapshot;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns how many snapshots were replaced by a newer one before extraction started on them.
+     */
+    long getSupersededCount() {
+        synchronized (mLock) {
+            return mSuperseded;
+        }
+    }
+
+    /**
+     * Stops the extraction thread, which releases the wrapped processor once any extraction in
+     * progress is over.  Returns at once, as it is called from the UI thread.
+     */
+    @Override
+    public void release() {
+        Thread thread;
+        synchronized (mLock) {
+            mActive = false;
+            if (mPending != null) {
+                mFree[mFreeCount++] = mPending;
+                mPending = null;
+            }
+            thread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
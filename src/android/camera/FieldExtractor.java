@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+/**
+ * One way of finding the value of a dictionary entry once its keyword has been found in a frame,
+ * such as reading the rest of the keyword line or the line to its right.
+ * <p/>
+ * Each entry runs its strategies in the order given by its dictionary entry and stops at the
+ * first that finds a value.  A strategy instance belongs to one processor and may keep scratch
+ * state between calls, but must not keep anything from one frame to the next.
+ *
+ * @see FieldExtractors
+ */
+interface FieldExtractor {
+
+    /**
+     * The name of the strategy in the "Strategies" of a dictionary entry.
+     */
+    String getName();
+
+    /**
+     * Looks for the value of an entry whose keyword was found in the indexed frame.
+     *
+     * @return true if a value was found, which ends the search for this entry
+     */
+    boolean extract(OcrDetectorProcessor.DetectionDictInfo info, ComponentIndex components);
+
+    /**
+     * Returns true if the value found next to a keyword depends on nothing but the text of the
+     * keyword's block, so it may be kept for as long as that text is unchanged.
+     */
+    boolean readsKeywordBlockOnly();
+}
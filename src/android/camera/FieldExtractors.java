@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.util.Log;
+
+import com.google.android.gms.vision.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link FieldExtractor} strategies a dictionary entry can name, and the order used for
+ * entries that name none.
+ */
+final class FieldExtractors {
+    private static final String TAG = FieldExtractors.class.getSimpleName();
+
+    static final String TEXT = "text";
+    static final String RIGHT = "right";
+    static final String BELOW = "below";
+
+    /** Strategies of an entry that does not list its own: the keyword line, then right, then below. */
+    static final String[] DEFAULT_ORDER = {TEXT, RIGHT, BELOW};
+
+    private FieldExtractors() {
+    }
+
+    /**
+     * Creates one instance of every strategy, for the exclusive use of one processor.
+     */
+    static FieldExtractor[] createAll() {
+        return new FieldExtractor[]{new InText(), new OnRight(), new Below()};
+    }
+
+    /**
+     * Picks the strategies named by an entry, in its order, from those of {@link #createAll()}.
+     * Unknown names are logged and skipped; an entry that names none gets {@link #DEFAULT_ORDER}.
+     */
+    static FieldExtractor[] select(FieldExtractor[] all, List<String> names) {
+        List<FieldExtractor> selected = new ArrayList<FieldExtractor>();
+        if (names != null) {
+            for (String name : names) {
+                FieldExtractor strategy = find(all, name.trim());
+                if (strategy == null) {
+                    Log.w(TAG, "Unknown strategy: " + name);
+                } else if (!selected.contains(strategy)) {
+                    selected.add(strategy);
+                }
+            }
+        }
+        if (selected.isEmpty()) {
+            for (String name : DEFAULT_ORDER) {
+                selected.add(find(all, name));
+            }
+        }
+        return selected.toArray(new FieldExtractor[selected.size()]);
+    }
+
+    private static FieldExtractor find(FieldExtractor[] all, String name) {
+        for (FieldExtractor strategy : all) {
+            if (strategy.getName().equalsIgnoreCase(name)) return strategy;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the value of an entry from a whole component found next to its keyword.
+     */
+    private static boolean acceptComponent(OcrDetectorProcessor.DetectionDictInfo info, Text text, String strategy) {
+        long match = info.matchValue(text.getValue());
+        if (match == ValueMatcher.NO_MATCH) return false;
+
+        info.mValueText = text;
+        if (info.mIndexOfKey < 0) info.resValue = "";
+
+        if (info.setValueIfAcceptable(text.getValue(), match)) {
+            info.bSelected = true;
+            info.resKeyword = info.dict.keywords.get(info.mIndexOfKey);
+            Log.d(TAG, strategy + ": " + info.getDisplayString());
+        }
+        return true;
+    }
+
+    /**
+     * Reads the value from the keyword line, after the keyword.  A service address found by its
+     * postal code rather than a keyword is read from the address lines of its block instead.
+     */
+    static final class InText implements FieldExtractor {
+        private final StringBuilder mAddress = new StringBuilder();
+        private final TextSpan mSpan = new TextSpan();
+
+        @Override
+        public String getName() {
+            return TEXT;
+        }
+
+        @Override
+        public boolean readsKeywordBlockOnly() {
+            return true;
+        }
+
+        @Override
+        public boolean extract(OcrDetectorProcessor.DetectionDictInfo info, ComponentIndex components) {
+            if (info.mIndexInKeyBlock < 0) {
+                return extractAddress(info, components);
+            }
+
+            Text keyword = components.text(info.mKeywordId);
+            String keywordValue = keyword.getValue();
+            List<String> keywords = info.dict.keywords;
+            boolean exact = false;
+            for (int k = 0; k < keywords.size(); k++) {
+                String key = keywords.get(k);
+                int offset = indexOfIgnoreCase(keywordValue, key);
+                if (offset < 0) continue;
+                exact = true;
+                if (acceptRest(info, keyword, offset + key.length())) return true;
+            }
+
+            // A keyword found with edits is not in the line as written.  It is looked for in the
+            // normalized line, as scan_keyword found it, and the offset mapped back to the line.
+            if (!exact && info.fuzzy != null) {
+                int end = info.fuzzy.findEnd(components.normalized(info.mKeywordId));
+                return end >= 0 && acceptRest(info, keyword, ComponentIndex.rawEnd(keywordValue, end));
+            }
+            return false;
+        }
+
+        /**
+         * Takes the value from the keyword line, after the given offset.
+         */
+        private boolean acceptRest(OcrDetectorProcessor.DetectionDictInfo info, Text keyword, int offset) {
+            String keywordValue = keyword.getValue();
+            mSpan.setTrimmed(keywordValue, offset, keywordValue.length());
+
+            long match = info.matchValue(mSpan);
+            if (match == ValueMatcher.NO_MATCH) return false;
+
+            info.mValueText = keyword;
+            if (info.setValueIfAcceptable(mSpan, match)) {
+                info.bSelected = true;
+                info.resKeyword = info.dict.keywords.get(info.mIndexOfKey);
+                Log.d(TAG, "find_value_in_text: A new Value:" + info.getDisplayString());
+            }
+            return true;
+        }
+
+        private boolean extractAddress(OcrDetectorProcessor.DetectionDictInfo info, ComponentIndex components) {
+            // Service Address without keyword
+            if (!info.dict.name.equalsIgnoreCase("service address")) return false;
+            if (!info.resKeyword.isEmpty()) return false;
+
+            // Join the address-like lines of the block up to the one with the postal code.
+            mAddress.setLength(0);
+            int valueTop = components.top(info.mValueId);
+            int count = components.componentCount(info.mKeyBlockIndex);
+            for (int j = 0; j < count; j++) {
+                int id = components.id(info.mKeyBlockIndex, j);
+                String line = components.text(id).getValue();
+
+                int flags = components.flags(id);
+                if ((flags & ComponentIndex.FLAG_NUMERIC) != 0) {
+                    mAddress.setLength(0);
+                } else if ((flags & ComponentIndex.FLAG_ADDRESS) != 0) {
+                    if (mAddress.length() > 0) mAddress.append(", ");
+                    mAddress.append(line);
+                } else {
+                    mAddress.setLength(0);
+                }
+                if (valueTop == components.top(id)) break;
+            }
+
+            long match = info.matchValue(mAddress);
+            if (match == ValueMatcher.NO_MATCH) return false;
+
+            info.mValueText = components.text(components.id(info.mKeyBlockIndex, 0));
+            if (info.setValueIfAcceptable(mAddress, match)) {
+                info.bSelected = true;
+                Log.d(TAG, "find_value_in_text: a new Value:" + info.getDisplayString());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the value from the nearest line to the right of the keyword line, in any block.
+     */
+    static final class OnRight implements FieldExtractor {
+        @Override
+        public String getName() {
+            return RIGHT;
+        }
+
+        @Override
+        public boolean readsKeywordBlockOnly() {
+            return false;
+        }
+
+        @Override
+        public boolean extract(OcrDetectorProcessor.DetectionDictInfo info, ComponentIndex components) {
+            if (info.mIndexInKeyBlock < 0) return false;
+
+            int id = components.findRightOf(info.mKeywordId);
+            return id >= 0 && acceptComponent(info, components.text(id), "find_value_in_right");
+        }
+    }
+
+    /**
+     * Reads the value from the line below the keyword line in its block.  Only used by entries
+     * with value patterns, as any line would do otherwise.
+     */
+    static final class Below implements FieldExtractor {
+        @Override
+        public String getName() {
+            return BELOW;
+        }
+
+        @Override
+        public boolean readsKeywordBlockOnly() {
+            return true;
+        }
+
+        @Override
+        public boolean extract(OcrDetectorProcessor.DetectionDictInfo info, ComponentIndex components) {
+            if (info.mIndexInKeyBlock < 0) return false;
+            if (!info.dict.hasPatterns()) return false;
+
+            int id = components.findBelow(info.mKeywordId);
+            return id >= 0 && acceptComponent(info, components.text(id), "find_value_in_below");
+        }
+    }
+
+    /**
+     * Case-insensitive {@link String#indexOf(String)} that does not lower-case copies of its
+     * arguments.
+     */
+    private static int indexOfIgnoreCase(String container, String key) {
+        int last = container.length() - key.length();
+        for (int i = 0; i <= last; i++) {
+            if (container.regionMatches(true, i, key, 0, key.length()))
+                return i;
+        }
+        return -1;
+    }
+}
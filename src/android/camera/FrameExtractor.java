@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.text.TextBlock;
+
+/**
+ * Extracts fields from the text detected in one frame.
+ * <p/>
+ * {@link OcrDetectorProcessor} runs the extractors enabled for the session one after the other
+ * on every frame that changed.  Extractors are called from a single thread and keep their
+ * results themselves.
+ */
+interface FrameExtractor {
+
+    /**
+     * Extracts fields from a frame.
+     *
+     * @param blocks the blocks detected in the frame
+     * @param components the index of the components of the same blocks
+     * @param usedBlocks set to true at the position of every block a field was read from
+     */
+    void extract(SparseArray<TextBlock> blocks, ComponentIndex components, boolean[] usedBlocks);
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Approximate search for the keywords of one dictionary entry, tolerating a few misread,
+ * missing or extra characters ("Tota1 Due", "Acc0unt No").
+ * <p/>
+ * Each keyword is compiled into the character masks of a bit-parallel Levenshtein automaton
+ * (Wu and Manber's extension of the shift-and algorithm), which finds every occurrence within
+ * the allowed number of edits in one pass over the text, in time proportional to the text
+ * length times the number of edits.  Matching is case-insensitive.
+ * <p/>
+ * Short keywords would match almost anything with a single edit, so a keyword is allowed one
+ * edit per {@link #CHARS_PER_EDIT} characters, up to the configured maximum.  Keywords longer
+ * than 63 characters are left to exact matching.  As in {@link KeywordAutomaton}, an occurrence
+ * of a keyword of up to {@link KeywordAutomaton#BOUNDARY_MAX_LENGTH} characters only counts when
+ * it is not glued to a neighbouring letter or digit.  The automaton only tells where an
+ * occurrence ends, so its start is found by aligning the keyword with the text before that end.
+ * <p/>
+ * Most text holds none of the keywords, so the automaton is only run on text that could hold
+ * one: a keyword allowed k edits is cut into k + 1 pieces, and as each edit spoils at most one
+ * piece, an occurrence leaves at least one piece as written.  Text too short for the keyword,
+ * or without any of its pieces, is passed over.
+ * <p/>
+ * Keywords are normalized as by {@link ComponentIndex#normalize(String)}, so, like
+ * {@link KeywordAutomaton}, they are meant to be found in normalized component text.
+ * <p/>
+ * Not thread safe; an instance belongs to the thread processing the frames.
+ */
+final class FuzzyKeywords {
+
+    static final int CHARS_PER_EDIT = 4;
+
+    private static final int MAX_LENGTH = 63;
+
+    private final String[] mKeys;
+    private final int[] mLength;
+    private final int[] mEdits;
+    // Per keyword: masks of the ASCII characters, and of the other characters it contains.
+    private final long[][] mAsciiMasks;
+    private final char[][] mOtherChars;
+    private final long[][] mOtherMasks;
+    // Per keyword: the offsets at which it is cut into pieces, for the pieces filter.
+    private final int[][] mPieces;
+
+    private final long[] mState;
+    private final long[] mPrevious;
+    // Rows of the edit distance table used to align an occurrence with its keyword.
+    private final int[] mRow = new int[MAX_LENGTH + 1];
+    private final int[] mPreviousRow = new int[MAX_LENGTH + 1];
+
+    /**
+     * @param keywords the keywords of the entry
+     * @param maxEdits the most edits allowed for any keyword
+     */
+    FuzzyKeywords(List<String> keywords, int maxEdits) {
+        int count = keywords.size();
+        mKeys = new String[count];
+        mLength = new int[count];
+        mEdits = new int[count];
+        mAsciiMasks = new long[count][];
+        mOtherChars = new char[count][];
+        mOtherMasks = new long[count][];
+        mPieces = new int[count][];
+
+        for (int k = 0; k < count; k++) {
+            String key = ComponentIndex.normalize(keywords.get(k));
+            int length = key.length();
+            mKeys[k] = key;
+            mLength[k] = length;
+            mEdits[k] = length > MAX_LENGTH ? 0 : Math.min(maxEdits, length / CHARS_PER_EDIT);
+            if (mEdits[k] == 0) continue;
+
+            long[] ascii = new long[128];
+            char[] other = new char[length];
+            long[] otherMasks = new long[length];
+            int otherCount = 0;
+            for (int i = 0; i < length; i++) {
+                char c = key.charAt(i);
+                if (c < 128) {
+                    ascii[c] |= 1L << i;
+                    continue;
+                }
+                int j = 0;
+                while (j < otherCount && other[j] != c) j++;
+                if (j == otherCount) other[otherCount++] = c;
+                otherMasks[j] |= 1L << i;
+            }
+            mAsciiMasks[k] = ascii;
+            mOtherChars[k] = Arrays.copyOf(other, otherCount);
+            mOtherMasks[k] = Arrays.copyOf(otherMasks, otherCount);
+
+            int pieces = mEdits[k] + 1;
+            mPieces[k] = new int[pieces + 1];
+            for (int j = 0; j <= pieces; j++) {
+                mPieces[k][j] = j * length / pieces;
+            }
+        }
+
+        mState = new long[maxEdits + 1];
+        mPrevious = new long[maxEdits + 1];
+    }
+
+    /**
+     * Finds the keyword that occurs in the text with the fewest edits; on equal edits the
+     * keyword listed first wins.  Exact occurrences are found too, but are better left to
+     * {@link KeywordAutomaton}.
+     *
+     * @return the index of the keyword, or -1 if none occurs within its allowed edits
+     */
+    int find(String text) {
+        long best = bestMatch(text);
+        return best < 0 ? -1 : (int) (best >>> 32);
+    }
+
+    /**
+     * Returns the offset just past the occurrence found by {@link #find(String)}, or -1.  When a
+     * keyword occurs several times with the same number of edits, the first occurrence is used.
+     */
+    int findEnd(String text) {
+        long best = bestMatch(text);
+        return best < 0 ? -1 : (int) best;
+    }
+
+    private long bestMatch(String text) {
+        long best = -1;
+        int bestEdits = Integer.MAX_VALUE;
+        for (int k = 0; k < mLength.length; k++) {
+            if (mEdits[k] == 0) continue;
+            // Only an occurrence with fewer edits than the best so far can win.
+            int limit = Math.min(mEdits[k], bestEdits - 1);
+            if (limit < 0) break;
+            if (text.length() < mLength[k] - limit || !hasPiece(k, text)) continue;
+            long match = search(k, text, limit);
+            if (match < 0) continue;
+
+            int edits = (int) (match >>> 32);
+            if (edits < bestEdits) {
+                bestEdits = edits;
+                best = ((long) k << 32) | (match & 0xffffffffL);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns true if the text contains one of the pieces of a keyword as written.  Cut for the
+     * keyword's allowed edits, the pieces also hold for any lower limit.
+     */
+    private boolean hasPiece(int k, String text) {
+        String key = mKeys[k];
+        int[] pieces = mPieces[k];
+        for (int j = 0; j + 1 < pieces.length; j++) {
+            int from = pieces[j];
+            int length = pieces[j + 1] - from;
+            for (int i = 0; i + length <= text.length(); i++) {
+                int n = 0;
+                while (n < length && Character.toLowerCase(text.charAt(i + n)) == key.charAt(from + n)) {
+                    n++;
+                }
+                if (n == length) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the automaton of one keyword over the text.
+     *
+     * @return the fewest edits found, in the high half, and the end of the first occurrence with
+     *         that many edits, in the low half; or -1 if there is no occurrence within the limit
+     */
+    private long search(int k, String text, int limit) {
+        long[] state = mState;
+        long[] previous = mPrevious;
+        // Bit i of state[d] is set when the first i + 1 characters of the keyword match a
+        // suffix of the text read so far with at most d edits.
+        for (int d = 0; d <= limit; d++) {
+            state[d] = (1L << d) - 1;
+        }
+
+        long accept = 1L << (mLength[k] - 1);
+        int bestEdits = limit + 1;
+        int bestEnd = -1;
+        for (int i = 0; i < text.length(); i++) {
+            long mask = mask(k, Character.toLowerCase(text.charAt(i)));
+            System.arraycopy(state, 0, previous, 0, limit + 1);
+
+            state[0] = ((previous[0] << 1) | 1) & mask;
+            for (int d = 1; d <= limit; d++) {
+                state[d] = (((previous[d] << 1) | 1) & mask)  // match
+                        | ((previous[d - 1] << 1) | 1)         // substitution
+                        | previous[d - 1]                      // extra character in the text
+                        | ((state[d - 1] << 1) | 1);           // missing character
+            }
+
+            for (int d = 0; d < bestEdits; d++) {
+                if ((state[d] & accept) != 0 && isWord(k, text, i + 1, d)) {
+                    bestEdits = d;
+                    bestEnd = i + 1;
+                    break;
+                }
+            }
+            if (bestEdits == 0) break;
+        }
+        return bestEnd < 0 ? -1 : ((long) bestEdits << 32) | bestEnd;
+    }
+
+    /**
+     * Returns true if an occurrence of a keyword ending at the given offset with the given edits
+     * is not glued to a neighbouring letter or digit, or if the keyword is too long to need it.
+     */
+    private boolean isWord(int k, String text, int end, int edits) {
+        int length = mLength[k];
+        if (length > KeywordAutomaton.BOUNDARY_MAX_LENGTH) return true;
+        if (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) return false;
+
+        // The occurrence starts where the keyword aligns with the text within the edits.
+        int from = Math.max(0, end - length - edits);
+        int to = Math.max(0, end - length + edits);
+        for (int start = from; start <= to; start++) {
+            if (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) continue;
+            if (distance(k, text, start, end) <= edits) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the edit distance between a keyword and a span of the text.
+     */
+    private int distance(int k, String text, int start, int end) {
+        String key = mKeys[k];
+        int length = mLength[k];
+        int[] row = mRow;
+        int[] previous = mPreviousRow;
+        for (int j = 0; j <= length; j++) previous[j] = j;
+        for (int i = start; i < end; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            row[0] = i - start + 1;
+            for (int j = 1; j <= length; j++) {
+                int cost = key.charAt(j - 1) == c ? 0 : 1;
+                row[j] = Math.min(previous[j - 1] + cost, Math.min(previous[j], row[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        return previous[length];
+    }
+
+    private long mask(int k, char c) {
+        if (c < 128) return mAsciiMasks[k][c];
+        char[] other = mOtherChars[k];
+        for (int j = 0; j < other.length; j++) {
+            if (other[j] == c) return mOtherMasks[k][j];
+        }
+        return 0;
+    }
+}
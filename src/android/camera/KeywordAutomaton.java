@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Case-folded Aho-Corasick automaton over the keywords of every dictionary entry.
+ * <p/>
+ * One pass over a string reports every keyword occurrence as a (dictionary, keyword index,
+ * offset) triple, so keyword search costs time linear in the text length however many fields
+ * are configured.  Keywords are normalized as by {@link ComponentIndex#normalize(String)}, so
+ * they are meant to be found in normalized component text.  Keywords of up to
+ * {@link #BOUNDARY_MAX_LENGTH} characters only count when they are not glued to a neighbouring
+ * letter or digit; longer keywords count anywhere.
+ * <p/>
+ * The automaton is immutable once built and may be shared between threads.
+ */
+final class KeywordAutomaton {
+
+    /** Keywords longer than this are accepted without the word-boundary check. */
+    static final int BOUNDARY_MAX_LENGTH = 10;
+
+    /**
+     * Receives the keyword occurrences found by {@link #scan(String, Listener)}.
+     */
+    interface Listener {
+        /**
+         * @param dict    index of the dictionary entry the keyword belongs to
+         * @param keyword index of the keyword within that entry
+         * @param offset  offset of the occurrence in the scanned string
+         */
+        void onKeyword(int dict, int keyword, int offset);
+    }
+
+    // Character classes: 0 is every character that does not occur in any keyword.
+    private final int[] mAsciiClass = new int[128];
+    private final char[] mOtherChars;
+    private final int[] mOtherClass;
+    private final int mClassCount;
+
+    // Full transition table, mDelta[state * mClassCount + class].
+    private final int[] mDelta;
+    // Keyword ids reported on entering each state, including those of its suffix states.
+    private final int[][] mOutput;
+
+    private final int[] mKeywordDict;
+    private final int[] mKeywordIndex;
+    private final int[] mKeywordLength;
+
+    KeywordAutomaton(List<OcrCaptureActivity.OCRDictionary> dicts) {
+        this(keywordsOf(dicts));
+    }
+
+    /**
+     * Builds the automaton over groups of keywords other than those of a dictionary, such as the
+     * captions of the amount fields.  Occurrences report the group as their dictionary index.
+     */
+    KeywordAutomaton(String[][] groups) {
+        List<String> folded = new ArrayList<String>();
+        List<int[]> owners = new ArrayList<int[]>();
+        for (int d = 0; d < groups.length; d++) {
+            String[] keywords = groups[d];
+            for (int k = 0; k < keywords.length; k++) {
+                String key = ComponentIndex.normalize(keywords[k]);
+                if (key.isEmpty()) continue;
+                folded.add(key);
+                owners.add(new int[]{d, k});
+            }
+        }
+
+        int count = folded.size();
+        mKeywordDict = new int[count];
+        mKeywordIndex = new int[count];
+        mKeywordLength = new int[count];
+        for (int i = 0; i < count; i++) {
+            mKeywordDict[i] = owners.get(i)[0];
+            mKeywordIndex[i] = owners.get(i)[1];
+            mKeywordLength[i] = folded.get(i).length();
+        }
+
+        // Assign a class to every distinct keyword character.
+        char[] distinct = distinctChars(folded);
+        int classes = 1;
+        int others = 0;
+        for (char c : distinct) {
+            if (c < 128) {
+                mAsciiClass[c] = classes++;
+            } else {
+                others++;
+            }
+        }
+        mOtherChars = new char[others];
+        mOtherClass = new int[others];
+        others = 0;
+        for (char c : distinct) {
+            if (c >= 128) {
+                mOtherChars[others] = c;
+                mOtherClass[others++] = classes++;
+            }
+        }
+        mClassCount = classes;
+
+        // Build the trie, growing the goto table as states are added.
+        int capacity = 1;
+        for (String key : folded) capacity += key.length();
+        int[] goTo = new int[capacity * mClassCount];
+        Arrays.fill(goTo, -1);
+        List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+        outputs.add(new ArrayList<Integer>());
+        int states = 1;
+        for (int i = 0; i < count; i++) {
+            String key = folded.get(i);
+            int state = 0;
+            for (int j = 0; j < key.length(); j++) {
+                int slot = state * mClassCount + classOf(key.charAt(j));
+                if (goTo[slot] < 0) {
+                    goTo[slot] = states++;
+                    outputs.add(new ArrayList<Integer>());
+                }
+                state = goTo[slot];
+            }
+            outputs.get(state).add(i);
+        }
+
+        // Breadth-first pass turning the trie into a DFA and merging suffix outputs.
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int c = 0; c < mClassCount; c++) {
+            int next = goTo[c];
+            if (next < 0) {
+                goTo[c] = 0;
+            } else {
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            outputs.get(state).addAll(outputs.get(fail[state]));
+            for (int c = 0; c < mClassCount; c++) {
+                int slot = state * mClassCount + c;
+                int next = goTo[slot];
+                if (next < 0) {
+                    goTo[slot] = goTo[fail[state] * mClassCount + c];
+                } else {
+                    fail[next] = goTo[fail[state] * mClassCount + c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+
+        mDelta = Arrays.copyOf(goTo, states * mClassCount);
+        mOutput = new int[states][];
+        for (int s = 0; s < states; s++) {
+            List<Integer> ids = outputs.get(s);
+            mOutput[s] = new int[ids.size()];
+            for (int i = 0; i < ids.size(); i++) mOutput[s][i] = ids.get(i);
+        }
+    }
+
+    /**
+     * Returns true if no keyword has been configured at all.
+     */
+    boolean isEmpty() {
+        return mKeywordDict.length == 0;
+    }
+
+    /**
+     * Reports every keyword occurrence in the supplied string to the listener, in order of the
+     * offset at which the occurrence ends.
+     */
+    void scan(String text, Listener listener) {
+        if (text == null || isEmpty()) return;
+
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = mDelta[state * mClassCount + classOf(Character.toLowerCase(text.charAt(i)))];
+            int[] ids = mOutput[state];
+            for (int id : ids) {
+                int keyLength = mKeywordLength[id];
+                int offset = i - keyLength + 1;
+                if (keyLength <= BOUNDARY_MAX_LENGTH) {
+                    if (offset > 0 && Character.isLetterOrDigit(text.charAt(offset - 1))) continue;
+                    if (i + 1 < length && Character.isLetterOrDigit(text.charAt(i + 1))) continue;
+                }
+                listener.onKeyword(mKeywordDict[id], mKeywordIndex[id], offset);
+            }
+        }
+    }
+
+    private static String[][] keywordsOf(List<OcrCaptureActivity.OCRDictionary> dicts) {
+        String[][] groups = new String[dicts.size()][];
+        for (int d = 0; d < groups.length; d++) {
+            List<String> keywords = dicts.get(d).keywords;
+            groups[d] = keywords.toArray(new String[keywords.size()]);
+        }
+        return groups;
+    }
+
+    private int classOf(char c) {
+        if (c < 128) return mAsciiClass[c];
+        int i = Arrays.binarySearch(mOtherChars, c);
+        return i < 0 ? 0 : mOtherClass[i];
+    }
+
+    private static char[] distinctChars(List<String> keys) {
+        StringBuilder all = new StringBuilder();
+        for (String key : keys) all.append(key);
+        char[] chars = all.toString().toCharArray();
+        Arrays.sort(chars);
+        int n = 0;
+        for (int i = 0; i < chars.length; i++) {
+            if (i == 0 || chars[i] != chars[i - 1]) chars[n++] = chars[i];
+        }
+        return Arrays.copyOf(chars, n);
+    }
+}
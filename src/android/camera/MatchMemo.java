@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used memo of value pattern matches, keyed by dictionary entry and
+ * candidate string.
+ * <p/>
+ * The same lines come back frame after frame while a document is in view, so most candidates
+ * have been matched before.  A lookup hashes the candidate in place, without copying it; only a
+ * candidate that is not in the memo yet is copied into a key.
+ * <p/>
+ * Safe to share between the threads extracting the fields of one frame.  The memo is locked only
+ * for the lookup and the insertion, so the pattern match of a new candidate runs unlocked.
+ */
+final class MatchMemo {
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private final int mCapacity;
+    private final LinkedHashMap<Key, Long> mMatches;
+    private final Key mProbe = new Key();
+
+    // Guarded by mMatches.
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    MatchMemo(int capacity) {
+        mCapacity = capacity;
+        mMatches = new LinkedHashMap<Key, Long>(2 * capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                if (size() <= mCapacity) return false;
+                mEvictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the match of a candidate against the patterns of an entry, from the memo if the
+     * candidate was matched before.
+     *
+     * @param dict the index of the entry in the dictionary
+     * @param matcher the session's matcher of the entry's patterns
+     * @see ValueMatcher#match(CharSequence)
+     */
+    long match(int dict, ValueMatcher matcher, CharSequence candidate) {
+        synchronized (mMatches) {
+            Long match = mMatches.get(mProbe.set(dict, candidate));
+            mProbe.text = null;
+            if (match != null) {
+                mHits++;
+                return match;
+            }
+            mMisses++;
+        }
+
+        // Entries are matched by one thread at a time, so the entry's matcher is not shared.
+        long result = matcher.match(candidate);
+        Key key = new Key().set(dict, candidate.toString());
+        synchronized (mMatches) {
+            mMatches.put(key, result);
+        }
+        return result;
+    }
+
+    long getHitCount() {
+        synchronized (mMatches) {
+            return mHits;
+        }
+    }
+
+    long getMissCount() {
+        synchronized (mMatches) {
+            return mMisses;
+        }
+    }
+
+    long getEvictionCount() {
+        synchronized (mMatches) {
+            return mEvictions;
+        }
+    }
+
+    private static final class Key {
+        int dict;
+        CharSequence text;
+        int hash;
+
+        Key set(int dict, CharSequence text) {
+            this.dict = dict;
+            this.text = text;
+            int h = dict;
+            for (int i = 0; i < text.length(); i++) {
+                h = 31 * h + text.charAt(i);
+            }
+            hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            if (dict != other.dict || hash != other.hash) return false;
+            CharSequence a = text, b = other.text;
+            if (a.length() != b.length()) return false;
+            for (int i = 0; i < a.length(); i++) {
+                if (a.charAt(i) != b.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -41,6 +41,7 @@ import android.widget.Toast;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.text.TextBlock;
 import com.google.android.gms.vision.text.TextRecognizer;
 
 import org.json.JSONArray;
@@ -50,11 +51,8 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.lang.Math.max;
 import static java.lang.Math.min;
@@ -66,8 +64,6 @@ import static java.lang.Math.min;
  */
 public final class OcrCaptureActivity extends Activity {
     private static final String TAG = OcrCaptureActivity.class.getSimpleName();
-    public static String[] resultStr = new String[8];
-    public static final Object obj = new Object();
     // Intent request code to handle updating play services if needed.
     private static final int RC_HANDLE_GMS = 9001;
 
@@ -80,15 +76,14 @@ public final class OcrCaptureActivity extends Activity {
     private CameraSource mCameraSource;
     private CameraSourcePreview mPreview;
     private GraphicOverlay<OcrGraphic> mGraphicOverlay;
+    private OcrConfig mConfig;
+    private OcrDetectorProcessor mProcessor;
 
     // Helper objects for detecting taps and pinches.
 //    private ScaleGestureDetector scaleGestureDetector;
 //    private GestureDetector gestureDetector;
 //    private Button btnCapture;
-    public static String ocrCountry;
-    public static List<OCRDictionary> ocrDict;
-    public static boolean isDebug;
-
+    private boolean mFinishing;
 
     /**
      * Initializes the UI and creates the detector pipeline.
@@ -104,21 +99,19 @@ public final class OcrCaptureActivity extends Activity {
         // read parameters from the intent used to launch the activity.
         //boolean autoFocus = getIntent().getBooleanExtra(AutoFocus, false);
         //boolean useFlash = getIntent().getBooleanExtra(UseFlash, false);
+        JSONObject ocrOption;
         try {
-            JSONObject ocrOption = new JSONObject(getIntent().getStringExtra(OCR_OPTION));
-            ocrCountry = ocrOption.optString("country");
-            isDebug = ocrOption.optBoolean("debug");
-            JSONArray ocrDictionary = ocrOption.optJSONArray("dictionary");
-            ocrDict = new ArrayList<OCRDictionary>();
-            for( int i=0; i<ocrDictionary.length(); i++ ){
-                ocrDict.add(new OCRDictionary(ocrDictionary.getJSONObject(i)));
-            }
-            if( isDebug ) {
-                Log.d(TAG, "optCountry: " + ocrCountry);
-                Log.d(TAG, "isDebug: " + isDebug);
-            }
+            ocrOption = new JSONObject(getIntent().getStringExtra(OCR_OPTION));
         } catch (JSONException e) {
             e.printStackTrace();
+            ocrOption = new JSONObject();
+        }
+        mConfig = new OcrConfig(ocrOption);
+        if( mConfig.debug ) {
+            Log.d(TAG, "optCountry: " + mConfig.country);
+            Log.d(TAG, "isDebug: " + mConfig.debug);
+            Log.d(TAG, "autoFinishFrames: " + mConfig.autoFinishFrames);
+            Log.d(TAG, "extractors: dictionary=" + mConfig.extractDictionary + " amounts=" + mConfig.extractAmounts);
         }
 
         // Check for the camera permission before accessing the camera.  If the
@@ -138,27 +131,36 @@ public final class OcrCaptureActivity extends Activity {
         btnCapture.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                JSONArray result = new JSONArray();
-                JSONObject objResult = new JSONObject();
-                synchronized (OcrCaptureActivity.obj) {
-                    for( OCRDictionary dict : OcrCaptureActivity.ocrDict) {
-                        try {
-                            objResult.putOpt(dict.name, dict.resValue);
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-                result.put(objResult);
-                Intent data = new Intent();
-                data.putExtra("recognized_id_string", result.toString());
-                setResult(RESULT_OK, data);
-                finish();
+                finishWithResult();
             }
         });
 
     }
 
+    /**
+     * Returns the values recognized so far to the plugin and closes the activity.
+     */
+    private void finishWithResult() {
+        if( mFinishing ) return;
+        mFinishing = true;
+
+        // The latest published result; the processor may keep going until the activity is gone.
+        JSONArray result = new JSONArray();
+        JSONObject objResult = new JSONObject();
+        if( mProcessor != null ) {
+            try {
+                objResult = mProcessor.getResult().toJson();
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        result.put(objResult);
+        Intent data = new Intent();
+        data.putExtra("recognized_id_string", result.toString());
+        setResult(RESULT_OK, data);
+        finish();
+    }
+
     /**
      * Handles the requesting of the camera permission.  This includes
      * showing a "Snackbar" message of why the permission is needed then
@@ -206,9 +208,29 @@ public final class OcrCaptureActivity extends Activity {
 
         // A text recognizer is created to find text.  An associated processor instance
         // is set to receive the text recognition results and display graphics for each text block
-        // on screen.
+        // on screen.  The processor runs in its own extraction stage so that field extraction
+        // does not hold up recognition of the next frame.
         TextRecognizer textRecognizer = new TextRecognizer.Builder(context).build();
-        textRecognizer.setProcessor(new OcrDetectorProcessor(mGraphicOverlay));
+        OcrDetectorProcessor processor = new OcrDetectorProcessor(mGraphicOverlay, mConfig);
+        mProcessor = processor;
+        if( mConfig.autoFinishFrames > 0 ) {
+            processor.setAutoFinish(mConfig.autoFinishFrames, new OcrDetectorProcessor.OnStableListener() {
+                @Override
+                public void onMandatoryFieldsStable() {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Log.d(TAG, "All mandatory fields are stable, finishing.");
+                            if (mPreview != null) {
+                                mPreview.stop();
+                            }
+                            finishWithResult();
+                        }
+                    });
+                }
+            });
+        }
+        textRecognizer.setProcessor(new ExtractionStage<TextBlock>(processor));
 
         if (!textRecognizer.isOperational()) {
             // Note: The first time that an app using a Vision API is installed on a
@@ -244,9 +266,13 @@ public final class OcrCaptureActivity extends Activity {
                 new CameraSource.Builder(getApplicationContext(), textRecognizer)
                 .setFacing(CameraSource.CAMERA_FACING_BACK)
                 .setRequestedPreviewSize(max(width, height), min(width, height))
-                .setRequestedFps(2.0f)
+                .setRequestedFps(mConfig.maxFps)
+                .setDetectionFpsRange(mConfig.minFps, mConfig.maxFps)
+                .setRegionOfInterest(mConfig.regionOfInterest())
+                .setRequestedDetectionSize(mConfig.detectionSize)
                 .setFlashMode(useFlash ? Camera.Parameters.FLASH_MODE_TORCH : null)
                 .setFocusMode(autoFocus ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE : null)
+                .setDebug(mConfig.debug)
                 .build();
     }
 
@@ -371,149 +397,70 @@ public final class OcrCaptureActivity extends Activity {
     }
 
 
-    public static class OCRDictionary {
-        private static final String DEFAULT_VALUE = "---";
-
-        public String name;
-        public boolean mandatory;
-        public List<String> keywords;
-        public List<String> patterns;
-        public String resKeyword;
-        public String resValue;
-        public int indexOfPattern;
-
-        public OCRDictionary(JSONObject object){
+    /**
+     * An entry of the dictionary as configured: its name, the keywords that introduce its value
+     * and the patterns the value must match.  Entries are compiled once when the options are
+     * read and never change afterwards; what a session reads is kept by its processor.
+     */
+    public static final class OCRDictionary {
+        private static final int MAX_EDITS = 3;
+
+        public final String name;
+        public final boolean mandatory;
+        public final List<String> keywords;
+        public final List<String> patterns;
+        // Names of the FieldExtractors to look for the value with, in order, or null for the default.
+        public final List<String> strategies;
+        // Most characters a keyword may be misread by and still be found, or 0 for exact keywords.
+        public final int maxEdits;
+
+        // Compiled patterns; sessions match with forks of it.
+        private final ValueMatcher valueMatcher;
+
+        public OCRDictionary(JSONObject object, int patternStepBudget){
             name = object.optString("Name");
             mandatory = object.optBoolean("Mandatory");
-            keywords = new ArrayList<String>();
+            maxEdits = Math.max(0, Math.min(MAX_EDITS, object.optInt("MaxEdits")));
 
+            List<String> list = new ArrayList<String>();
             JSONArray array = object.optJSONArray("Keywords");
             if( array != null) {
                 for (int i = 0; i < array.length(); i++) {
-                    keywords.add(array.optString(i));
+                    list.add(array.optString(i));
                 }
             }
+            keywords = Collections.unmodifiableList(list);
 
-            patterns = new ArrayList<String>();
             String strPatterns = object.optString("Patterns");
             if( !strPatterns.isEmpty() )
-                patterns = Arrays.asList(strPatterns.split("&&"));
+                patterns = Collections.unmodifiableList(Arrays.asList(strPatterns.split("&&")));
             else
                 patterns = null;
+            valueMatcher = new ValueMatcher(patterns, patternStepBudget);
 
-            resKeyword = "";
-            resValue = "";
-            indexOfPattern = -1;
+            array = object.optJSONArray("Strategies");
+            if( array != null ) {
+                list = new ArrayList<String>();
+                for (int i = 0; i < array.length(); i++) {
+                    list.add(array.optString(i));
+                }
+                strategies = Collections.unmodifiableList(list);
+            } else {
+                strategies = null;
+            }
         }
 
         public boolean hasPatterns(){
             return patterns!=null && patterns.size()>0;
         }
 
-        private String getKeyName(){
-            return resKeyword.isEmpty() ? name : resKeyword;
-        }
-
-        private String getDisplayValue() {
-            return resValue.isEmpty() ? DEFAULT_VALUE : resValue;
-        }
-
-        public String getDisplayString(){
-            String result = name + ":" + getDisplayValue();
-            if( OcrCaptureActivity.isDebug )
-                result += "/" + resKeyword + "/" + (indexOfPattern + 1);
-
-            return result;
-        }
-
-        public boolean isSetValue(){
-            return !resValue.isEmpty();
-        }
-
-        public int getIndexKeywords(String string){
-            for(int i=0; i<keywords.size(); i++){
-                String key = keywords.get(i);
-                if( checkContainKeyword(key, string) )
-                    return i;
-            }
-            return -1;
-        }
-
-        private boolean checkContainKeyword(String key, String container){
-            String sKey = key.toLowerCase();
-            String sContainer = container.toLowerCase();
-            if( sContainer.contains(sKey) ){
-                if( sKey.length() > 10 ) return true;
-
-                Pattern p = Pattern.compile("[a-z0-9]"+sKey);
-                if (p.matcher(container).find())
-                    return false;
-
-                p = Pattern.compile(sKey+"[a-z0-9]");
-                if( p.matcher(container).find())
-                    return false;
-
-                return true;
-            }
-
-            return false;
-        }
-
-        public Map<String, Object> checkMatchValuePattern(String string){
-            if( string==null || string.isEmpty() ) return null;
-
-            final HashMap<String, Object> resultMap = new HashMap();
-            String res = ""; int num = -1;
-            boolean result = false;
-            if( !hasPatterns() ){
-                res = string;
-                num = -1;
-                result = true;
-            } else {
-                for (int i=0; i<patterns.size(); i++) {
-                    String pattern = patterns.get(i);
-                    Pattern p = Pattern.compile("(?i:"+pattern+")");
-                    Matcher match = p.matcher(string);
-                    if( match.find() ) {
-                        String strMatched = match.group();
-                        if( strMatched.length() > res.length() ){
-                            res = strMatched;
-                            num = i;
-                            result = true;
-                        }
-                    }
-                }
-            }
-            if( result ){
-                resultMap.put("result_value", res);
-                resultMap.put("pattern_num", num);
-                return resultMap;
-            }
-            return null;
-        }
-
-        public boolean setValueIfAcceptable(String string){
-            Map<String, Object> result = checkMatchValuePattern(string);
-            if( result == null) return false;
-
-            String value = (String)result.get("result_value");
-            if(value==null) value = "";
-            Integer num = (Integer) result.get("pattern_num");
-            if(num==null) num = -1;
-
-            if( isSetValue() ){
-                if( value.length() > resValue.length() ){
-                    resValue = value;
-                    indexOfPattern = num;
-                    return true;
-                }
-            } else {
-                resValue = value;
-                indexOfPattern = num;
-                return true;
-            }
-
-            return false;
+        /**
+         * Returns a matcher of the value patterns of this entry for one session to use.
+         *
+         * @see ValueMatcher#fork()
+         */
+        ValueMatcher newValueMatcher(){
+            return valueMatcher.fork();
         }
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.graphics.RectF;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The options of a capture session, read once from the JSON passed by the plugin.
+ * <p/>
+ * The dictionary entries are compiled here, patterns included, and nothing changes afterwards,
+ * so a configuration can be read from any thread without locking.  What a session reads is kept
+ * by its {@link OcrDetectorProcessor} and published as {@link OcrResult}s.
+ */
+final class OcrConfig {
+    private static final String TAG = OcrConfig.class.getSimpleName();
+
+    static final int DEFAULT_AUTO_FINISH_FRAMES = 3;
+    static final float DEFAULT_MIN_FPS = 1.0f;
+    static final float DEFAULT_MAX_FPS = 8.0f;
+    // Lowest rate accepted, so a detection is due at least every 10 seconds.
+    private static final float LOWEST_FPS = 0.1f;
+
+    final String country;
+    final boolean debug;
+    // Extractors to run in the session.
+    final boolean extractDictionary;
+    final boolean extractAmounts;
+    // Whether the values of large dictionaries are looked for on several threads.
+    final boolean parallelFields;
+    // Steps a value pattern may take on one candidate before giving up.
+    final int patternStepBudget;
+    // Region of the preview to detect in, as fractions of its size, unless mHasRegion is false.
+    // Kept as plain floats so the configuration stays immutable.
+    private final boolean mHasRegion;
+    private final float mRegionLeft;
+    private final float mRegionTop;
+    private final float mRegionRight;
+    private final float mRegionBottom;
+    // Longest side, in pixels, of the frames text is recognized in, or 0 for the preview size.
+    final int detectionSize;
+    // Bounds of the rate text is recognized at, paced to the speed of the device.
+    final float minFps;
+    final float maxFps;
+    // Number of stable frames after which the session finishes on its own, or 0 if it only
+    // finishes with the capture button.
+    final int autoFinishFrames;
+    final List<OcrCaptureActivity.OCRDictionary> dictionary;
+
+    /**
+     * Reads the options.  Only the dictionary extractor runs if no extractors are named.
+     */
+    OcrConfig(JSONObject options) {
+        country = options.optString("country");
+        debug = options.optBoolean("debug");
+        parallelFields = options.optBoolean("parallelFields");
+        patternStepBudget = Math.max(1, options.optInt("patternStepBudget", ValueMatcher.DEFAULT_STEP_BUDGET));
+        RectF region = readRegion(options.optJSONObject("roi"));
+        mHasRegion = region != null;
+        mRegionLeft = mHasRegion ? region.left : 0;
+        mRegionTop = mHasRegion ? region.top : 0;
+        mRegionRight = mHasRegion ? region.right : 1;
+        mRegionBottom = mHasRegion ? region.bottom : 1;
+        detectionSize = Math.max(0, options.optInt("detectionSize"));
+        minFps = Math.max(LOWEST_FPS, (float) options.optDouble("minFps", DEFAULT_MIN_FPS));
+        maxFps = Math.max(minFps, (float) options.optDouble("maxFps", DEFAULT_MAX_FPS));
+        autoFinishFrames = options.optBoolean("autoFinish")
+                ? Math.max(1, options.optInt("autoFinishFrames", DEFAULT_AUTO_FINISH_FRAMES))
+                : 0;
+
+        JSONArray names = options.optJSONArray("extractors");
+        boolean runDictionary = names == null;
+        boolean runAmounts = false;
+        for (int i = 0; names != null && i < names.length(); i++) {
+            String name = names.optString(i);
+            if ("dictionary".equalsIgnoreCase(name))
+                runDictionary = true;
+            else if ("amounts".equalsIgnoreCase(name))
+                runAmounts = true;
+            else
+                Log.w(TAG, "Unknown extractor: " + name);
+        }
+        extractDictionary = runDictionary;
+        extractAmounts = runAmounts;
+
+        List<OcrCaptureActivity.OCRDictionary> entries = new ArrayList<OcrCaptureActivity.OCRDictionary>();
+        JSONArray array = options.optJSONArray("dictionary");
+        for (int i = 0; array != null && i < array.length(); i++) {
+            JSONObject entry = array.optJSONObject(i);
+            if (entry == null) {
+                Log.w(TAG, "Ignoring dictionary entry that is not an object: " + array.opt(i));
+                continue;
+            }
+            entries.add(new OcrCaptureActivity.OCRDictionary(entry, patternStepBudget));
+        }
+        dictionary = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns a new copy of the region of the preview to detect in, as fractions of its size, or
+     * null to detect in all of it.
+     */
+    RectF regionOfInterest() {
+        return mHasRegion ? new RectF(mRegionLeft, mRegionTop, mRegionRight, mRegionBottom) : null;
+    }
+
+    /**
+     * Reads a region given as fractions, or returns null if there is none or it is not a
+     * non-empty region within the preview.
+     */
+    private static RectF readRegion(JSONObject roi) {
+        if (roi == null) return null;
+
+        float left = (float) roi.optDouble("left", 0);
+        float top = (float) roi.optDouble("top", 0);
+        float right = (float) roi.optDouble("right", 1);
+        float bottom = (float) roi.optDouble("bottom", 1);
+        if (!(0 <= left && left < right && right <= 1 && 0 <= top && top < bottom && bottom <= 1)) {
+            Log.w(TAG, "Ignoring invalid region of interest: " + roi);
+            return null;
+        }
+        return new RectF(left, top, right, bottom);
+    }
+}
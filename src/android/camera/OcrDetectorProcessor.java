@@ -18,9 +18,6 @@ package com.creative.informatics.camera;
 import com.creative.informatics.ui.GraphicOverlay;
 
 import android.graphics.Color;
-import android.graphics.Rect;
-import android.graphics.RectF;
-import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -28,84 +25,228 @@ import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.text.Text;
 import com.google.android.gms.vision.text.TextBlock;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * A very simple Processor which receives detected TextBlocks and adds them to the overlay
  * as OcrGraphics.
  */
-public class OcrDetectorProcessor implements Detector.Processor<TextBlock> {
+public class OcrDetectorProcessor implements Detector.Processor<TextBlock>, ExtractionStage.Consumer<TextBlock> {
     private static final String TAG = OcrDetectorProcessor.class.getSimpleName();
 
+    /**
+     * Notified when every mandatory dictionary entry has kept the same value for the configured
+     * number of frames.
+     */
+    public interface OnStableListener {
+        void onMandatoryFieldsStable();
+    }
+
     private GraphicOverlay<OcrGraphic> mGraphicOverlay;
-    private boolean[] block_f;
+    private final OcrConfig mConfig;
+    private boolean[] block_f = new boolean[16];
+    private final ComponentIndex mComponents = new ComponentIndex();
+    // Keeps the keyword and postal code hits, and the values read, of blocks whose text has not
+    // changed since they were last scanned.
+    private final BlockTracker mTracker = new BlockTracker();
+    /** Fewest entries with a keyword in the frame for their values to be looked for in parallel. */
+    static final int PARALLEL_MIN_FIELDS = 16;
+    /** Entries a parallel task handles itself rather than splitting further. */
+    static final int FIELDS_PER_TASK = 4;
+    /** Most threads of the parallel extraction pool. */
+    static final int MAX_PARALLELISM = 4;
+
     private DetectionDictInfo[] mDictInfoList;
-    private static JSONObject POSTAL_CODES;
+    // Strategy instances of the processing thread, in FieldExtractors.createAll() order.
+    private final FieldExtractor[] mAllStrategies = FieldExtractors.createAll();
+    // Pool looking for the values of many entries at once, or null when extraction is sequential.
+    private final ForkJoinPool mFieldPool;
+    // Positions of the entries with a keyword in the frame, the first mActiveCount of them.
+    private final int[] mActiveFields;
+    private int mActiveCount;
+    // Strategies keep scratch state, so every pool thread has its own.
+    private final ThreadLocal<FieldExtractor[]> mWorkerStrategies = new ThreadLocal<FieldExtractor[]>() {
+        @Override
+        protected FieldExtractor[] initialValue() {
+            return FieldExtractors.createAll();
+        }
+    };
+    // Value pattern matches of the candidates seen this session.
+    private final MatchMemo mMatchMemo = new MatchMemo(MatchMemo.DEFAULT_CAPACITY);
+    // Extractors enabled for the session, run in order on every changed frame.
+    private final FrameExtractor[] mExtractors;
+    // The amount extractor among them, or null if it is not enabled.
+    private final AmountExtractor mAmountExtractor;
+    private final String[] mAmountNames;
+    // Latest values read, swapped whole whenever one of them changes.
+    private final AtomicReference<OcrResult> mResult = new AtomicReference<OcrResult>();
+    // Postal codes of the configured country, or null if that country has none.
+    private final Matcher mPostalCode;
+    private final BudgetedSequence mPostalBudget = new BudgetedSequence();
+
+    private final KeywordAutomaton mKeywords;
+    // Lowest keyword index hit per dictionary entry in the component being scanned.
+    private final int[] mKeywordHits;
+    private final KeywordAutomaton.Listener mKeywordListener = new KeywordAutomaton.Listener() {
+        @Override
+        public void onKeyword(int dict, int keyword, int offset) {
+            if( mKeywordHits[dict] < 0 || keyword < mKeywordHits[dict] )
+                mKeywordHits[dict] = keyword;
+        }
+    };
+
+    // Graphics are double buffered: the overlay draws one list while the next frame fills the
+    // other, and the lists swap once the overlay has taken the new one.
+    private ArrayList<OcrGraphic> mFrameGraphics = new ArrayList<OcrGraphic>();
+    private ArrayList<OcrGraphic> mShownGraphics = new ArrayList<OcrGraphic>();
+    private int mFrameGraphicCount;
 
-    OcrDetectorProcessor(GraphicOverlay<OcrGraphic> ocrGraphicOverlay) {
+    // Fingerprint of the last frame extracted, to skip frames that detected exactly the same.
+    private boolean mHasFingerprint;
+    private long mLastFingerprint;
+    private volatile long mFrameCount;
+    private volatile long mSkippedFrameCount;
+
+    private int mStableFrames;
+    private OnStableListener mStableListener;
+    private boolean mStableNotified;
+
+    OcrDetectorProcessor(GraphicOverlay<OcrGraphic> ocrGraphicOverlay, OcrConfig config) {
         mGraphicOverlay = ocrGraphicOverlay;
+        mConfig = config;
 
-        mDictInfoList = new DetectionDictInfo[OcrCaptureActivity.ocrDict.size()];
+        mDictInfoList = new DetectionDictInfo[config.dictionary.size()];
         for( int i=0; i<mDictInfoList.length; i++){
             mDictInfoList[i] = new DetectionDictInfo();
-            mDictInfoList[i].dict = OcrCaptureActivity.ocrDict.get(i);
+            mDictInfoList[i].index = i;
+            mDictInfoList[i].dict = config.dictionary.get(i);
+            mDictInfoList[i].matcher = mDictInfoList[i].dict.newValueMatcher();
+            mDictInfoList[i].bServiceAddress = mDictInfoList[i].dict.name.toLowerCase().contains("service address");
+            mDictInfoList[i].setStrategies(FieldExtractors.select(mAllStrategies, mDictInfoList[i].dict.strategies));
+            if( mDictInfoList[i].dict.maxEdits > 0 )
+                mDictInfoList[i].fuzzy = new FuzzyKeywords(mDictInfoList[i].dict.keywords, mDictInfoList[i].dict.maxEdits);
         }
+        mKeywords = new KeywordAutomaton(config.dictionary);
+        mFieldPool = config.parallelFields
+                ? new ForkJoinPool(Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()))
+                : null;
+        mKeywordHits = new int[mDictInfoList.length];
+        mActiveFields = new int[mDictInfoList.length];
+
+        Pattern postalCode = PostalCodes.forCountry(ocrGraphicOverlay.getContext(), config.country);
+        mPostalCode = postalCode == null ? null : postalCode.matcher("");
+
+        List<FrameExtractor> extractors = new ArrayList<FrameExtractor>();
+        if( config.extractDictionary )
+            extractors.add(mDictionaryExtractor);
+        mAmountExtractor = config.extractAmounts ? new AmountExtractor(AmountExtractor.loadFields(ocrGraphicOverlay.getContext())) : null;
+        if( mAmountExtractor != null )
+            extractors.add(mAmountExtractor);
+        mExtractors = extractors.toArray(new FrameExtractor[extractors.size()]);
+
+        AmountExtractor.Field[] fields = mAmountExtractor == null ? new AmountExtractor.Field[0] : mAmountExtractor.getFields();
+        mAmountNames = new String[fields.length];
+        for( int f=0; f<fields.length; f++)
+            mAmountNames[f] = fields[f].name;
+        OcrResult empty = OcrResult.empty(config, mAmountNames);
+        mResult.set(empty);
+        mGraphicOverlay.setStatusLines(empty.getDisplayLines());
+    }
 
-        initPostalCode();
+    /**
+     * Finds the values of the dictionary entries from their keywords.
+     */
+    private final FrameExtractor mDictionaryExtractor = new FrameExtractor() {
+        @Override
+        public void extract(SparseArray<TextBlock> blocks, ComponentIndex components, boolean[] usedBlocks) {
+            for( int i=0; i<mDictInfoList.length; i++){
+
+                //mDictInfoList[i].mIndexOfKey = -1;
+                mDictInfoList[i].bSelected = false;
+                mDictInfoList[i].bRead = false;
+                mDictInfoList[i].mValueText = null;
+                mDictInfoList[i].mKeywordBlock = null;
+                mDictInfoList[i].mIndexInKeyBlock = -1;
+                mDictInfoList[i].mKeywordId = -1;
+                mDictInfoList[i].mKeyBlockIndex = -1;
+                mDictInfoList[i].mValueId = -1;
+//                mDictInfoList[i].mValueBlock = null;
+//                mDictInfoList[i].mIndexInValueBlock = -1;
+            }
+
+            find_keyword(blocks);
+            find_value(blocks);
+        }
+    };
+
+    /**
+     * Enables auto-finish: the listener is called once, from the processing thread, when every
+     * mandatory entry has been read with an unchanged value in {@code frames} frames in a row.
+     * Frames in which an entry is not found at all neither count nor break its streak.  Has no
+     * effect if no entry is mandatory.
+     */
+    void setAutoFinish(int frames, OnStableListener listener) {
+        mStableFrames = frames;
+        mStableListener = listener;
     }
 
     /**
      * Called by the detector to deliver detection results.
-     * If your application called for it, this could be a place to check for
-     * equivalent detections by tracking TextBlocks that are similar in location and content from
-     * previous frames, or reduce noise by eliminating TextBlocks that have not persisted through
-     * multiple detections.
+     * TextBlocks are tracked across frames by location and content, so blocks that come back
+     * with the same text are not scanned for keywords again.
      */
     @Override
     public void receiveDetections(Detector.Detections<TextBlock> detections) {
-        mGraphicOverlay.clear();
-        final SparseArray<TextBlock> items = detections.getDetectedItems();
-        for( int i=0; i<mDictInfoList.length; i++){
+        consume(detections.getDetectedItems());
+    }
 
-            //mDictInfoList[i].mIndexOfKey = -1;
-            mDictInfoList[i].bSelected = false;
-            mDictInfoList[i].mValueText = null;
-            mDictInfoList[i].mKeywordBlock = null;
-            mDictInfoList[i].mIndexInKeyBlock = -1;
-//            mDictInfoList[i].mValueBlock = null;
-//            mDictInfoList[i].mIndexInValueBlock = -1;
+    /**
+     * Extracts the fields of a frame from its detected TextBlocks, as
+     * {@link #receiveDetections} does, without the detections around them.
+     */
+    @Override
+    public void consume(SparseArray<TextBlock> items) {
+        mFrameCount++;
+        mComponents.build(items);
+
+        // A document held still comes back with the same text in the same places frame after
+        // frame; the previous results and graphics still stand, so only the streaks move on.
+        long fingerprint = mComponents.fingerprint();
+        if( mHasFingerprint && fingerprint == mLastFingerprint ) {
+            mSkippedFrameCount++;
+            check_stable();
+            return;
         }
+        mHasFingerprint = true;
+        mLastFingerprint = fingerprint;
+        mTracker.update(items, mComponents);
 
-        block_f = new boolean[items.size()];
+        if( block_f.length < items.size() )
+            block_f = new boolean[2 * items.size()];
+        Arrays.fill(block_f, false);
 //        Log.e(TAG, "receiveDetections: 1 >>"+items.size());
 
-        find_keyword(items);
-        find_value(items);
-        Set<OcrGraphic> graphics = new HashSet<OcrGraphic>();
+        for( FrameExtractor extractor : mExtractors )
+            extractor.extract(items, mComponents, block_f);
+        publish_result();
+        check_stable();
+        mFrameGraphicCount = 0;
 
-        if ( OcrCaptureActivity.isDebug ) {
+        if ( mConfig.debug ) {
             for (int i = 0; i < items.size(); ++i) {
-                TextBlock item = items.valueAt(i);
-                OcrGraphic graphic = new OcrGraphic(mGraphicOverlay, item, Color.YELLOW);
-
-                graphics.add(graphic);
+                obtainGraphic(items.valueAt(i), null, Color.YELLOW).setId(mTracker.track(i).id);
             }
         }
 
         for( DetectionDictInfo info : mDictInfoList){
             if( info.mKeywordBlock != null){
-                OcrGraphic graphic;
-
                 int color;
                 if( info.bSelected )
                     color = Color.RED;
@@ -113,509 +254,422 @@ public class OcrDetectorProcessor implements Detector.Processor<TextBlock> {
                     color = Color.GREEN;
 
                 if( info.mValueText != null ) {
-                    graphic = new OcrGraphic(mGraphicOverlay, info.mValueText, color);
-                    graphics.add(graphic);
+                    obtainGraphic(null, info.mValueText, color);
                 }
 
                 if( info.mIndexInKeyBlock >= 0) {
-                    Text keywordText = info.mKeywordBlock.getComponents().get(info.mIndexInKeyBlock);
-                    graphic = new OcrGraphic(mGraphicOverlay, keywordText, color);
-                    graphics.add(graphic);
+                    obtainGraphic(null, mComponents.text(info.mKeywordId), color);
                 }
             }
         }
-        mGraphicOverlay.addAll(graphics);
+        mGraphicOverlay.setAll(mFrameGraphics, mFrameGraphicCount);
+
+        ArrayList<OcrGraphic> shown = mFrameGraphics;
+        mFrameGraphics = mShownGraphics;
+        mShownGraphics = shown;
+    }
+    /**
+     * Returns the values read so far.  May be called from any thread; the result does not change
+     * once returned.
+     */
+    public OcrResult getResult() {
+        return mResult.get();
+    }
+
+    /**
+     * Publishes a new result if any value differs from the last one published.  Only the
+     * processing thread publishes, so readers see every result whole.
+     */
+    private void publish_result(){
+        OcrResult last = mResult.get();
+        boolean changed = false;
+        for( int i=0; i<mDictInfoList.length && !changed; i++){
+            DetectionDictInfo info = mDictInfoList[i];
+            changed = !info.resValue.equals(last.getValue(i))
+                    || !info.resKeyword.equals(last.getKeyword(i))
+                    || info.indexOfPattern != last.getPattern(i);
+        }
+        for( int f=0; f<mAmountNames.length && !changed; f++){
+            String amount = mAmountExtractor.getValue(f);
+            changed = amount == null ? last.getAmount(f) != null : !amount.equals(last.getAmount(f));
+        }
+        if( !changed ) return;
+
+        String[] values = new String[mDictInfoList.length];
+        String[] keywords = new String[mDictInfoList.length];
+        int[] patterns = new int[mDictInfoList.length];
+        for( int i=0; i<mDictInfoList.length; i++){
+            values[i] = mDictInfoList[i].resValue;
+            keywords[i] = mDictInfoList[i].resKeyword;
+            patterns[i] = mDictInfoList[i].indexOfPattern;
+        }
+        String[] amounts = new String[mAmountNames.length];
+        for( int f=0; f<amounts.length; f++)
+            amounts[f] = mAmountExtractor.getValue(f);
+
+        OcrResult result = new OcrResult(mConfig, values, keywords, patterns, mAmountNames, amounts);
+        mResult.set(result);
+        mGraphicOverlay.setStatusLines(result.getDisplayLines());
+    }
+
+    /**
+     * Returns the number of frames received so far.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
 
-/*        String[] OCR_result=find_amount(items);
-        int n=0;
+    /**
+     * Returns the number of frames that were not extracted because they detected the same text
+     * in the same places as the frame before.
+     */
+    public long getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
 
-        synchronized (OcrCaptureActivity.obj) {
-            for (int i = 0; i < OCR_result.length; i++) {
-                if (OcrCaptureActivity.resultStr[i] == null || OcrCaptureActivity.resultStr[i] == "")
+    /**
+     * Updates the stability streak of every entry found in this frame and notifies the listener
+     * once all mandatory entries are stable.  The streak follows the value read in the frame,
+     * not the value kept, so a frame that reads anything else starts it over.
+     */
+    private void check_stable(){
+        boolean allStable = true;
+        boolean anyMandatory = false;
+        for( DetectionDictInfo info : mDictInfoList){
+            String value = info.mReadValue;
+            if( info.bRead && !value.isEmpty() ) {
+                if( value.equals(info.mStableValue) ) {
+                    info.mStableCount++;
+                } else {
+                    info.mStableValue = value;
+                    info.mStableCount = 1;
+                }
+            }
 
-                    OcrCaptureActivity.resultStr[i] = OCR_result[i];
-                if (OcrCaptureActivity.resultStr[i] != null && OcrCaptureActivity.resultStr[i] != "")
-                    n++;
+            if( info.dict.mandatory ) {
+                anyMandatory = true;
+                if( info.mStableCount < mStableFrames ) allStable = false;
             }
         }
 
-        for (int i = 0; i < items.size(); ++i) {
-            // if(!block_f[i])
-            //     continue;
-            TextBlock item = items.valueAt(i);
-            OcrGraphic graphic = new OcrGraphic(mGraphicOverlay, item);
-            mGraphicOverlay.add(graphic);
-        }*/
+        if( mStableListener != null && anyMandatory && allStable && !mStableNotified ) {
+            mStableNotified = true;
+            mStableListener.onMandatoryFieldsStable();
+        }
     }
-    private boolean checkServiceAddressEx(TextBlock block){
+
+    /**
+     * Takes the next graphic of the frame from the pool, creating it only while the pool grows.
+     */
+    private OcrGraphic obtainGraphic(TextBlock block, Text text, int color){
+        OcrGraphic graphic;
+        if( mFrameGraphicCount < mFrameGraphics.size() ) {
+            graphic = mFrameGraphics.get(mFrameGraphicCount);
+        } else {
+            graphic = new OcrGraphic(mGraphicOverlay);
+            mFrameGraphics.add(graphic);
+        }
+        mFrameGraphicCount++;
+        graphic.set(block, text, color);
+        return graphic;
+    }
+
+    private boolean checkServiceAddressEx(int index, TextBlock block){
+        if( mPostalCode == null ) return false;
+
         for( DetectionDictInfo info : mDictInfoList) {
-            if ( !info.dict.name.toLowerCase().contains("service address")) continue;
-            if( !info.dict.resKeyword.isEmpty() ) continue;
+            if ( !info.bServiceAddress ) continue;
+            if( !info.resKeyword.isEmpty() ) continue;
 
             if (info.mIndexOfKey >= 0) break;
             if (info.mKeywordBlock != null) break;
 
-            JSONArray postal = POSTAL_CODES.optJSONArray(OcrCaptureActivity.ocrCountry);
-            if (postal != null) {
-                for( int i=0; i<postal.length(); i++){
-                    List<? extends Text> list = block.getComponents();
-                    for( int j=0; j<list.size(); j++){
-                        Text item = list.get(j);
-                        Pattern p = Pattern.compile(postal.optString(i));
-                        if( p.matcher(item.getValue()).find() ) {
-                            info.mKeywordBlock = block;
-                            info.mValueText = item;
-                            return true;
-                        }
-                    }
-                }
-            } else
-                return false;
+            int j = find_postal_code(index, block);
+            if( j >= 0 ) {
+                info.mKeywordBlock = block;
+                info.mKeyBlockIndex = index;
+                info.mValueText = block.getComponents().get(j);
+                info.mValueId = mComponents.id(index, j);
+                return true;
+            }
         }
         return false;
     }
+
+    /**
+     * Returns the index of the first component of the block containing a postal code, or -1.
+     * The answer is kept on the block's track until its text changes.
+     */
+    private int find_postal_code(int index, TextBlock block){
+        BlockTracker.Track track = mTracker.track(index);
+        if( track.postalComponent != BlockTracker.UNKNOWN )
+            return track.postalComponent;
+
+        int found = -1;
+        List<? extends Text> list = block.getComponents();
+        for( int j=0; j<list.size(); j++){
+            try {
+                if( mPostalCode.reset(mPostalBudget.reset(list.get(j).getValue(), mConfig.patternStepBudget)).find() ) {
+                    found = j;
+                    break;
+                }
+            } catch (BudgetedSequence.Exhausted e) {
+                // A line the patterns cannot decide on within the budget holds no postal code.
+            }
+        }
+        track.postalComponent = found;
+        return found;
+    }
     private boolean find_keyword(SparseArray<TextBlock> blocks){
 
         for(int i=0; i<blocks.size(); i++){
             TextBlock item = blocks.valueAt(i);
             List<? extends Text> list = item.getComponents();
+            BlockTracker.Track track = mTracker.track(i);
+            if( !track.isScanned() )
+                track.startScan(list.size(), mDictInfoList.length);
+
             for( int j=0; j<list.size(); j++){
-                Text component = list.get(j);
-                for (DetectionDictInfo info : mDictInfoList) {
-                    int inxKey = info.dict.getIndexKeywords(component.getValue());
-                    if (inxKey > -1) {
-                        info.mIndexOfKey = inxKey;
-                        info.mKeywordBlock = item;
-                        info.mIndexInKeyBlock = j;
-                        block_f[i] = true;
-                        break;
-                    }
+                int hit = track.keywordHit(j);
+                if( hit == BlockTracker.UNKNOWN ) {
+                    hit = scan_keyword(mComponents.id(i, j));
+                    track.setKeywordHit(j, hit);
                 }
+                if( hit < 0 ) continue;
+
+                DetectionDictInfo info = mDictInfoList[hit >>> 16];
+                info.mIndexOfKey = hit & 0xffff;
+                info.mKeywordBlock = item;
+                info.mKeyBlockIndex = i;
+                info.mIndexInKeyBlock = j;
+                info.mKeywordId = mComponents.id(i, j);
+                block_f[i] = true;
             }
 
-            if( checkServiceAddressEx(item) )
+            if( checkServiceAddressEx(i, item) )
                 block_f[i] = true;
         }
 
         return true;
     }
 
-    private void find_value(SparseArray<TextBlock> blocks){
-
-        for (DetectionDictInfo info : mDictInfoList) {
-            if( info.mKeywordBlock!=null ){
-                if( find_value_in_text(info) ) continue;
-
-                if( find_value_in_right(blocks, info) ) continue;
-
-                if( find_value_in_below(info) ) continue;
+    /**
+     * Scans a component for keywords and returns the hit of the first entry found, as
+     * {@code entry << 16 | keyword}, or -1 if the component holds no keyword.  Only when no
+     * entry's keyword is found as written are the entries with fuzzy keywords looked for with
+     * edits, so an exact keyword always wins over an approximate one.
+     */
+    private int scan_keyword(int id){
+        String value = mComponents.normalized(id);
+        Arrays.fill(mKeywordHits, -1);
+        mKeywords.scan(value, mKeywordListener);
+        for (int d=0; d<mDictInfoList.length; d++) {
+            if (mKeywordHits[d] > -1)
+                return d << 16 | mKeywordHits[d];
+        }
+        for (int d=0; d<mDictInfoList.length; d++) {
+            if (mDictInfoList[d].fuzzy != null) {
+                int keyword = mDictInfoList[d].fuzzy.find(value);
+                if (keyword > -1)
+                    return d << 16 | keyword;
             }
         }
-
+        return -1;
     }
-    private boolean find_value_in_text(DetectionDictInfo info){
-        if( info.mIndexInKeyBlock < 0 ) {
-            // Service Address without keyword
-            if( !info.dict.name.equalsIgnoreCase("service address")) return false;
-            if( !info.dict.resKeyword.isEmpty() ) return false;
-
-            ArrayList<String> builder = new ArrayList<String>();
-            for( Text text : info.mKeywordBlock.getComponents()){
-
-                if( text.getValue().matches("^[0-9,.\\s]+$") ) {
-                    builder.clear();
-                }else if( text.getValue().matches("(?i:^[a-z0-9,.\\s]+$)") ) {
-                    builder.add(text.getValue());
-                } else {
-                    builder.clear();
-                }
-                if( info.mValueText.getBoundingBox().top == text.getBoundingBox().top ) break;
-            }
-            String value = TextUtils.join(", ", builder);
-
-            if( info.dict.checkMatchValuePattern(value) != null) {
-                info.mValueText = info.mKeywordBlock.getComponents().get(0);
 
-                if (info.dict.setValueIfAcceptable(value)) {
-                    info.bSelected = true;
-                    Log.d(TAG, "find_value_in_text: a new Value:" + info.dict.getDisplayString());
-                }
-                return true;
+    private void find_value(SparseArray<TextBlock> blocks){
+        if( mFieldPool != null ) {
+            mActiveCount = 0;
+            for (DetectionDictInfo info : mDictInfoList) {
+                if( info.mKeywordBlock!=null ) mActiveFields[mActiveCount++] = info.index;
             }
-        } else {
-            Text keyword = info.mKeywordBlock.getComponents().get(info.mIndexInKeyBlock);
-            for(String key : info.dict.keywords){
-                int offset = keyword.getValue().toLowerCase().indexOf(key.toLowerCase());
-                if( offset < 0) continue;
-                String value = keyword.getValue().substring(offset + key.length()).trim();
-
-                if( info.dict.checkMatchValuePattern(value) != null) {
-                    info.mValueText = keyword;
-
-                    if (info.dict.setValueIfAcceptable(value)) {
-                        info.bSelected = true;
-                        info.dict.resKeyword = info.dict.keywords.get(info.mIndexOfKey);
-                        Log.d(TAG, "find_value_in_text: A new Value:" + info.dict.getDisplayString());
-                    }
-                    return true;
-                }
+            if( mActiveCount >= PARALLEL_MIN_FIELDS ) {
+                // Lazily computed views would race between the pool threads.
+                mComponents.analyzeAll();
+                mFieldPool.invoke(new FieldTask(0, mActiveCount));
+                return;
             }
         }
 
-        return false;
+        for (DetectionDictInfo info : mDictInfoList) {
+            find_value_of(info, mAllStrategies);
+        }
     }
 
-    private boolean find_value_in_right(SparseArray<TextBlock> blocks, DetectionDictInfo info){
-        if( info.mIndexInKeyBlock < 0 ) return false;
-
-        Text keyword = info.mKeywordBlock.getComponents().get(info.mIndexInKeyBlock);
-        Rect rcKeyword = new Rect(keyword.getBoundingBox());
-        ArrayList<Text> result = new ArrayList<Text>();
-        for (int i=0;i<blocks.size();i++) {
-            TextBlock block = blocks.valueAt(i);
-            for( Text text : block.getComponents()){
-                Rect rcText = new Rect(text.getBoundingBox());
-                if( Math.abs(rcText.top-rcKeyword.top) > 10 ) continue;
-                if( rcKeyword.right > rcText.left) continue;
-
-                result.add(text);
-            }
+    /**
+     * Runs the strategies of one entry in the order of its ranking until one finds its value.
+     * The value read is that of the first strategy to find one, so it follows the ranking.
+     * Only touches the entry itself, so entries may be handled on different threads as long as
+     * each thread passes its own strategy instances.
+     * <p/>
+     * A value read from the keyword's block alone is kept on the block's track, and taken from
+     * there again while the block's text is unchanged and the same strategy still ranks first.
+     */
+    private void find_value_of(DetectionDictInfo info, FieldExtractor[] strategies){
+        if( info.mKeywordBlock==null ) return;
+
+        StrategyRanking ranking = info.mRanking;
+        BlockTracker.Track track = info.mIndexInKeyBlock < 0 ? null : mTracker.track(info.mKeyBlockIndex);
+        if( track != null && track.valueStrategy(info.index) == ranking.strategyAt(0) ) {
+            int s = ranking.strategyAt(0);
+            info.mValueText = mComponents.text(mComponents.id(info.mKeyBlockIndex, track.valueComponent(info.index)));
+            if( info.setCachedValue(track.value(info.index), track.valuePattern(info.index)) )
+                Log.d(TAG, "find_value_of: A kept Value:" + info.getDisplayString());
+            info.mCachedHits++;
+            ranking.recordHit(s);
+            ranking.update();
+            return;
         }
 
-        if( result.isEmpty() ) return false;
-
-        Collections.sort(result, new Comparator<Text>() {
-            @Override
-            public int compare(Text o1, Text o2) {
-                return o1.getBoundingBox().left - o2.getBoundingBox().left;
+        for( int r=0; r<ranking.size(); r++){
+            int s = ranking.strategyAt(r);
+            FieldExtractor strategy = strategies[info.mStrategySlots[s]];
+            long start = System.nanoTime();
+            boolean found = strategy.extract(info, mComponents);
+            info.mStrategyNanos[s] += System.nanoTime() - start;
+            info.mStrategyCalls[s]++;
+            if( found ) {
+                info.mStrategyHits[s]++;
+                ranking.recordHit(s);
+                if( track != null && strategy.readsKeywordBlockOnly() )
+                    keep_value(info, track, s);
+                break;
             }
-        });
-
-        Text text = result.get(0);
-        if( info.dict.checkMatchValuePattern(text.getValue()) != null) {
-            info.mValueText = text;
-            if( info.mIndexOfKey < 0) info.dict.resValue="";
-
-            if (info.dict.setValueIfAcceptable(text.getValue())) {
-                info.bSelected = true;
-                info.dict.resKeyword = info.dict.keywords.get(info.mIndexOfKey);
-                Log.d(TAG, "find_value_in_right: " + info.dict.getDisplayString());
-            }
-            return true;
+            ranking.recordMiss(s);
         }
-        return false;
+        ranking.update();
     }
 
-    private boolean find_value_in_below(DetectionDictInfo info){
-        if( info.mIndexInKeyBlock < 0 ) return false;
-        if( !info.dict.hasPatterns() ) return false;
-
-        Text keyword = info.mKeywordBlock.getComponents().get(info.mIndexInKeyBlock);
-        Rect rcKeyword = new Rect(keyword.getBoundingBox());
-        ArrayList<Text> result = new ArrayList<Text>();
-        List<? extends Text> components = info.mKeywordBlock.getComponents();
-
-        for( Text text : components){
-            Rect rcText = text.getBoundingBox();
-            if( rcKeyword.top >= rcText.top ) continue;
+    /**
+     * Keeps the value a strategy just read from the keyword's block on the block's track, whether
+     * or not it was taken.
+     */
+    private void keep_value(DetectionDictInfo info, BlockTracker.Track track, int strategy){
+        int count = mComponents.componentCount(info.mKeyBlockIndex);
+        for( int j=0; j<count; j++){
+            if( mComponents.text(mComponents.id(info.mKeyBlockIndex, j)) != info.mValueText ) continue;
 
-            result.add(text);
+            track.setValue(info.index, strategy, j, info.mReadValue, info.mReadPattern);
+            return;
         }
+    }
 
-        if( result.isEmpty() ) return false;
-
-        Collections.sort(result, new Comparator<Text>() {
-            @Override
-            public int compare(Text o1, Text o2) {
-                return o1.getBoundingBox().top - o2.getBoundingBox().top;
-            }
-        });
-
-        Text text = result.get(0);
-        if( info.dict.checkMatchValuePattern(text.getValue()) != null) {
-            info.mValueText = text;
-            if( info.mIndexOfKey < 0) info.dict.resValue="";
+    /**
+     * Looks for the values of a range of the entries with a keyword in the frame, splitting it
+     * between the pool threads, so that every task gets entries with work to do.  Every
+     * entry writes only its own results, so the outcome does not depend on the split or on the
+     * order the tasks run in.
+     */
+    private final class FieldTask extends RecursiveAction {
+        private final int mFrom;
+        private final int mTo;
 
-            if (info.dict.setValueIfAcceptable(text.getValue())) {
-                info.bSelected = true;
-                info.dict.resKeyword = info.dict.keywords.get(info.mIndexOfKey);
-                Log.d(TAG, "find_value_in_below: " + info.dict.getDisplayString());
-            }
-            return true;
+        FieldTask(int from, int to) {
+            mFrom = from;
+            mTo = to;
         }
-        return false;
-    }
 
-    public String[] find_amount(SparseArray<TextBlock> items)
-    {
-        String[] result=new String[8];
-        for (int i=0;i<result.length;i++)
-            result[i]="";
-        boolean[] item_f=new boolean[items.size()];
-        block_f=new boolean[items.size()];
-        for (int i=0;i<items.size();i++)
-        {
-            TextBlock item = items.valueAt(i);
-            List<? extends Text> textComponents = item.getComponents();
-            for(Text currentText : textComponents) {
-                String block_text=currentText.getValue();
-                if(check_text(block_text)) {
-                    item_f[i]=true;
-                    block_f[i]=true;
-                }
+        @Override
+        protected void compute() {
+            if( mTo - mFrom <= FIELDS_PER_TASK ) {
+                FieldExtractor[] strategies = mWorkerStrategies.get();
+                for( int i=mFrom; i<mTo; i++)
+                    find_value_of(mDictInfoList[mActiveFields[i]], strategies);
+                return;
             }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new FieldTask(mFrom, middle), new FieldTask(middle, mTo));
         }
-        for (int i=0;i<items.size();i++)
-        {
-            if(!item_f[i])
-                continue;
-            TextBlock item = items.valueAt(i);
-            RectF rect = new RectF(item.getBoundingBox());
-            List<? extends Text> textComponents = item.getComponents();
-            int count=-1;
-            for(Text currentText : textComponents) {
-                String block_text=currentText.getValue();
-                count++;
-                int index=match_index(block_text);
-                switch (index)
-                {
-                    case 0:
-                        result[0]=block_text;
-                        break;
-                    case 1:
-                    if(check_month(block_text))
-                        result[1]=block_text;
-                    else
-                    {
-                        String str1=month_string(textComponents,count);
-                        if(str1!="")
-                            result[1]=str1;
-                        else
-                        {
-                            result[1]=find_block(rect,0,count,items);
-                        }
-                    }
-                    break;
-                    case 2:
-                        if(check_month(block_text))
-                            result[2]=block_text;
-                        else
-                        {
-                            String str1=month_string(textComponents,count);
-                            if(str1!="")
-                                result[2]=str1;
-                            else
-                            {
-                                result[2]=find_block(rect,0,count,items);
-                            }
-                        }
-                        break;
-                    case 3:
-                        if(check_month(block_text))
-                            result[3]=block_text;
-                        else
-                        {
-                            String str1=month_string(textComponents,count);
-                            if(str1!="")
-                                result[3]=str1;
-                            else
-                            {
-                                result[3]=find_block(rect,0,count,items);
-                            }
-                        }
-                        break;
-                    case 4:
-                        String str1=amount_string(textComponents,count);
-                        if(str1!="")
-                            result[4]=str1;
-                        else
-                        {
-                            result[4]=find_block(rect,1,count,items);
-                        }
-
-                        break;
-                    case 5:
-                        String str5=amount_string(textComponents,count);
-                        if(str5!="")
-                            result[5]=str5;
-                        else
-                        {
-                            result[5]=find_block(rect,1,count,items);
-                        }
-
-                        break;
-                    case 6:
-                        String str6=amount_string(textComponents,count);
-                        if(str6!="")
-                            result[6]=str6;
-                        else
-                        {
-                            result[6]=find_block(rect,1,count,items);
-                        }
-
-                        break;
-                    case 7:
-                        String str7=amount_string(textComponents,count);
-                        if(str7!="")
-                            result[7]=str7;
-                        else
-                        {
-                            result[7]=find_block(rect,1,count,items);
-                        }
-
-                        break;
-                }
-            }
-        }
-        return result;
     }
-    private String find_block(RectF mrect, int kind,int count,SparseArray<TextBlock> items)
-    {
-        float M=100000;
-        int mindex=-1;
-        for (int i=0;i<items.size();i++) {
-            TextBlock item = items.valueAt(i);
-            RectF rect = new RectF(item.getBoundingBox());
-            if(rect.left<mrect.right)
-                continue;
-            if(rect.left==mrect.left && rect.top==mrect.top)
-                continue;
-            if(Math.abs(rect.top-mrect.top)>10)
-                continue;
-            if(Math.abs(rect.bottom-mrect.bottom)>10)
-                continue;
-            if(M>rect.left)
-            {
-                M=rect.left;
-                mindex=i;
-            }
-        }
-        TextBlock mitem = items.valueAt(mindex);
-        block_f[mindex]=true;
-        List<? extends Text> textComponents = mitem.getComponents();
-        int no=-1;
-        if(textComponents.size()>count)
-        {
-            for(Text currentText : textComponents) {
-                no++;
-                if(no==count)
-                {
-                    String block_text = currentText.getValue();
-                    if(kind==0)
-                    {
-                        if(check_month(block_text))
-                            return block_text;
-                    }
-                    else if(kind==1)
-                    {
-                        if(check_amount(block_text))
-                            return block_text;
-                    }
-                    break;
-                }
-
 
+    /**
+     * Logs, for every entry and strategy, how often the strategy ran, how often it found the
+     * value and how long it took on average, along with the pattern matches of the entry that
+     * ran out of steps.
+     */
+    private void log_strategy_stats(){
+        for( DetectionDictInfo info : mDictInfoList){
+            long timeouts = info.matcher.getTimeoutCount();
+            if( timeouts > 0 )
+                Log.d(TAG, info.dict.name + ": " + timeouts + " pattern matches ran out of steps");
+            if( info.mCachedHits > 0 )
+                Log.d(TAG, info.dict.name + ": " + info.mCachedHits + " values kept from unchanged blocks");
+            for( int s=0; s<info.mStrategies.length; s++){
+                long calls = info.mStrategyCalls[s];
+                Log.d(TAG, info.dict.name + "/" + info.mStrategies[s].getName()
+                        + ": " + info.mStrategyHits[s] + " hits in " + calls + " calls, "
+                        + (calls == 0 ? 0 : info.mStrategyNanos[s] / calls) + " ns/call");
             }
         }
-
-        return "";
-    }
-    private String month_string(List<? extends Text> textComponents,int count)
-    {
-        int no=-1;
-        for(Text currentText : textComponents) {
-            no++;
-            if(no<=count)
-                continue;
-            String block_text=currentText.getValue();
-            if(check_month(block_text))
-                return block_text;
-        }
-        return "";
-    }
-    private String amount_string(List<? extends Text> textComponents,int count)
-    {
-        int no=-1;
-        for(Text currentText : textComponents) {
-            no++;
-            if(no<=count)
-                continue;
-            String block_text=currentText.getValue();
-            if(check_amount(block_text))
-                return block_text;
-        }
-        return "";
-    }
-    private boolean check_amount1(String str)
-    {
-        String[] str1=str.split(" ");
-        for(int i=0;i<str1.length;i++)
-        {
-            if(str1[i].substring(0,1).contains("$"))
-                return true;
-        }
-        return false;
-    }
-    private boolean check_amount(String str)
-    {
-        if(str.trim().substring(0,1).contains("$"))
-            return true;
-        return false;
-    }
-    private boolean check_month(String str)
-    {
-        String[] month_str=new String[]{"jan","feb","mar","apr","may","jun","jul","aug","sep","oct","nov","dec"};
-        for(int i=0;i<month_str.length;i++)
-        {
-            if(str.trim().toLowerCase().contains(month_str[i]))
-                return true;
-        }
-        return false;
-    }
-    public int match_index(String str)
-    {
-        String[] pattern_str=new String[]{"due date","simply pay by","bill issued","total due","total amount due","total amount due with discount","only pay"};
-        for(int i=0;i<pattern_str.length;i++)
-        {
-            if(str.toLowerCase().contains(pattern_str[i]))
-                return i+1;
-        }
-        if(str.trim().contains("Pty") && str.trim().contains("ABN"))
-            return 0;
-        return -1;
-    }
-    public boolean check_text(String str)
-    {
-        String[] pattern_str=new String[]{"due date","simply pay by","bill issued","total due","total amount due","total amount due with discount","only pay"};
-        for(int i=0;i<pattern_str.length;i++)
-        {
-            if(str.trim().toLowerCase().contains(pattern_str[i]))
-                return true;
-        }
-        if(str.trim().contains("Pty") && str.trim().contains("ABN"))
-            return true;
-        return false;
     }
+
     /**
      * Frees the resources associated with this detection processor.
      */
     @Override
     public void release() {
+        if( mFieldPool != null )
+            mFieldPool.shutdown();
+        if( mConfig.debug ) {
+            Log.d(TAG, "Skipped " + mSkippedFrameCount + " unchanged frames of " + mFrameCount);
+            log_strategy_stats();
+            Log.d(TAG, "Match memo: " + mMatchMemo.getHitCount() + " hits, " + mMatchMemo.getMissCount()
+                    + " misses, " + mMatchMemo.getEvictionCount() + " evictions");
+        }
         mGraphicOverlay.clear();
     }
 
     public class DetectionDictInfo {
+        // Position of the entry in the dictionary.
+        public int index;
         public OcrCaptureActivity.OCRDictionary dict;
+        // The session's own matcher of the entry's value patterns.
+        ValueMatcher matcher;
+        // Value read so far, the keyword it was read next to and the pattern it matched.
+        public String resKeyword = "";
+        public String resValue = "";
+        public int indexOfPattern = -1;
+        // Value read in the current frame, taken or not, and the pattern it matched.  The string
+        // is kept from frame to frame while the value read is the same.
+        public boolean bRead;
+        public String mReadValue;
+        public int mReadPattern = -1;
+        // Approximate keyword search, or null if the entry only accepts exact keywords.
+        public FuzzyKeywords fuzzy;
         public boolean bSelected;
+        // Whether the entry is a service address, which may be found by its postal code.
+        public boolean bServiceAddress;
 
         public int mHeightRate;
 
         public int mIndexOfKey;
 
         public TextBlock mKeywordBlock;
+        public int mKeyBlockIndex;
         public int mIndexInKeyBlock;
+        // Id of the keyword component in the frame's ComponentIndex.
+        public int mKeywordId;
 
         public Text mValueText;
+        // Id of the postal code component of a service address found without keyword.
+        public int mValueId;
+
+        // Value last read for this entry and in how many frames in a row it has been read.
+        public String mStableValue;
+        public int mStableCount;
+
+        // Strategies that look for the value, in configured order, and how each of them fared so
+        // far.  The ranking decides the order they are actually tried in, and so which of
+        // several candidate values is read.
+        public FieldExtractor[] mStrategies;
+        // Position of each strategy in FieldExtractors.createAll(), to find a thread's own instance.
+        public int[] mStrategySlots;
+        public StrategyRanking mRanking;
+        public long[] mStrategyCalls;
+        public long[] mStrategyHits;
+        public long[] mStrategyNanos;
+        // Frames in which the value was taken from the keyword block's track instead.
+        public long mCachedHits;
 
 //        public TextBlock mValueBlock;
 //        public int mIndexInValueBlock;
@@ -629,27 +683,99 @@ public class OcrDetectorProcessor implements Detector.Processor<TextBlock> {
 //            mValueBlock = null;
             mValueText = null;
             mIndexInKeyBlock = -1;
+            mKeywordId = -1;
+            mKeyBlockIndex = -1;
+            mValueId = -1;
 //            mIndexInValueBlock = -1;
         }
-    }
 
-    private static void initPostalCode(){
+        /**
+         * Matches a candidate against the value patterns of the entry, through the session's
+         * memo.
+         *
+         * @return the packed match, or {@link ValueMatcher#NO_MATCH}
+         */
+        public long matchValue(CharSequence candidate){
+            return mMatchMemo.match(index, matcher, candidate);
+        }
+
+        public boolean isSetValue(){
+            return !resValue.isEmpty();
+        }
+
+        /**
+         * Takes the matched part of the string as the value of this entry if there is no value
+         * yet or it is longer than the current one.
+         *
+         * @param string the candidate string
+         * @param match  the result of {@link #matchValue(CharSequence)} for the same string
+         */
+        public boolean setValueIfAcceptable(CharSequence string, long match){
+            if( match == ValueMatcher.NO_MATCH ) return false;
+
+            int start = ValueMatcher.start(match);
+            int end = ValueMatcher.end(match);
+            setRead(string, start, end, ValueMatcher.pattern(match));
+            if( isSetValue() && end - start <= resValue.length() )
+                return false;
+
+            resValue = mReadValue;
+            indexOfPattern = mReadPattern;
+            return true;
+        }
 
-        POSTAL_CODES = new JSONObject();
-        JSONArray australia = new JSONArray();
-        australia.put("VIC[\\s]*[0-9]{4}$");
-        australia.put("NSW[\\s]*[0-9]{4}$");
-        australia.put("QLD[\\s]*[0-9]{4}$");
-        australia.put("NT[\\s]*[0-9]{4}$");
-        australia.put("WA[\\s]*[0-9]{4}$");
-        australia.put("SA[\\s]*[0-9]{4}$");
-        australia.put("TAS[\\s]*[0-9]{4}$");
+        /**
+         * Records the value read in this frame, reusing the string of the last one read if it is
+         * the same.
+         */
+        private void setRead(CharSequence string, int start, int end, int pattern){
+            bRead = true;
+            mReadPattern = pattern;
+            if( mReadValue != null && mReadValue.length() == end - start ) {
+                int i = 0;
+                while( i < end - start && mReadValue.charAt(i) == string.charAt(start + i) ) i++;
+                if( i == end - start ) return;
+            }
+            mReadValue = string.subSequence(start, end).toString();
+        }
 
-        try {
-            POSTAL_CODES.putOpt("Australia", australia);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        /**
+         * Takes a value kept from an earlier frame, on the terms of
+         * {@link #setValueIfAcceptable(CharSequence, long)}.
+         *
+         * @param value   the value read then
+         * @param pattern the pattern it matched
+         */
+        boolean setCachedValue(String value, int pattern){
+            bRead = true;
+            mReadValue = value;
+            mReadPattern = pattern;
+            if( value.length() <= resValue.length() )
+                return false;
+
+            resValue = value;
+            indexOfPattern = pattern;
+            bSelected = true;
+            resKeyword = dict.keywords.get(mIndexOfKey);
+            return true;
         }
 
+        /**
+         * Describes the value read so far, for the log.
+         */
+        public String getDisplayString(){
+            return dict.name + ":" + resValue + "/" + resKeyword + "/" + (indexOfPattern + 1);
+        }
+
+        void setStrategies(FieldExtractor[] strategies){
+            mStrategies = strategies;
+            mStrategySlots = new int[strategies.length];
+            for( int s=0; s<strategies.length; s++)
+                mStrategySlots[s] = Arrays.asList(mAllStrategies).indexOf(strategies[s]);
+            mRanking = new StrategyRanking(strategies.length);
+            mStrategyCalls = new long[strategies.length];
+            mStrategyHits = new long[strategies.length];
+            mStrategyNanos = new long[strategies.length];
+        }
     }
 }
@@ -35,14 +35,19 @@ import java.util.List;
  */
 public class OcrGraphic extends GraphicOverlay.Graphic {
 
+    private static final Typeface TEXT_TYPEFACE = Typeface.create(Typeface.DEFAULT, Typeface.BOLD);
+
+    // Scratch for measuring text; only touched from draw() on the UI thread.
+    private static final Rect sTextBounds = new Rect();
+
     private int mId;
 
-    private Paint sRectPaint;
-    private Paint sTextPaint;
+    private final Paint sRectPaint;
+    private final Paint sTextPaint;
     private int sColor;
-    private final TextBlock mTextBlock;
-    private final Text mText;
-    private RectF rect = new RectF();
+    private TextBlock mTextBlock;
+    private Text mText;
+    private final RectF rect = new RectF();
 
     OcrGraphic(GraphicOverlay overlay, TextBlock text_block, int color) {
         this(overlay, text_block, null, color);
@@ -53,29 +58,40 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
     }
 
     OcrGraphic(GraphicOverlay overlay, TextBlock text_block, Text text, int color) {
+        this(overlay);
+        set(text_block, text, color);
+
+        // Redraw the overlay, as this graphic has been added.
+        postInvalidate();
+    }
+
+    /**
+     * Creates an empty graphic to be filled in with {@link #set(TextBlock, Text, int)}, so that
+     * graphics can be pooled and reused from frame to frame.
+     */
+    OcrGraphic(GraphicOverlay overlay) {
         super(overlay);
 
+        sRectPaint = new Paint();
+        sRectPaint.setStyle(Paint.Style.STROKE);
+        sRectPaint.setStrokeWidth(2.0f);
+
+        sTextPaint = new Paint();
+        sTextPaint.setTextSize(50.0f);
+        sTextPaint.setTypeface(TEXT_TYPEFACE);
+    }
+
+    /**
+     * Points this graphic at a new block or line.  Must not be called while the graphic is shown
+     * by the overlay.
+     */
+    void set(TextBlock text_block, Text text, int color) {
+        mId = 0;
         mTextBlock = text_block;
         mText = text;
         sColor = color;
-
-        if (sRectPaint == null) {
-            sRectPaint = new Paint();
-            sRectPaint.setColor(sColor);
-            sRectPaint.setStyle(Paint.Style.STROKE);
-            sRectPaint.setStrokeWidth(2.0f);
-        }
-
-        if (sTextPaint == null) {
-            sTextPaint = new Paint();
-            sTextPaint.setColor(sColor);
-            sTextPaint.setTextSize(50.0f);
-            sTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-        }
-
-        rect = new RectF();
-        // Redraw the overlay, as this graphic has been added.
-        postInvalidate();
+        sRectPaint.setColor(color);
+        sTextPaint.setColor(color);
     }
 
     public int getId() {
@@ -215,7 +231,7 @@ public class OcrGraphic extends GraphicOverlay.Graphic {
 
         // Get the bounds of the text, using our testTextSize.
         paint.setTextSize(testTextSize);
-        Rect bounds = new Rect();
+        Rect bounds = sTextBounds;
         paint.getTextBounds(text, 0, text.length(), bounds);
 
         // Calculate the desired size as a proportion of our testTextSize.
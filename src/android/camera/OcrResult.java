@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What a capture session has read so far.
+ * <p/>
+ * Results never change once built: the processor publishes a new one whenever a value changes,
+ * so the overlay and the capture button can read the latest one at any time without locking
+ * and without holding up the detector.
+ */
+final class OcrResult {
+    private static final String DEFAULT_VALUE = "---";
+
+    private final OcrConfig mConfig;
+    // Per dictionary entry: the value, or "" if none was read, the keyword it was read next to
+    // and the index of the pattern it matched.
+    private final String[] mValues;
+    private final String[] mKeywords;
+    private final int[] mPatterns;
+    // Per amount field: its name and value, or null if none was read.
+    private final String[] mAmountNames;
+    private final String[] mAmounts;
+
+    /**
+     * Takes ownership of the arrays, which the caller must not change afterwards.
+     */
+    OcrResult(OcrConfig config, String[] values, String[] keywords, int[] patterns,
+              String[] amountNames, String[] amounts) {
+        mConfig = config;
+        mValues = values;
+        mKeywords = keywords;
+        mPatterns = patterns;
+        mAmountNames = amountNames;
+        mAmounts = amounts;
+    }
+
+    /**
+     * Returns the result of a session that has not read anything yet.
+     */
+    static OcrResult empty(OcrConfig config, String[] amountNames) {
+        int count = config.dictionary.size();
+        String[] values = new String[count];
+        String[] keywords = new String[count];
+        int[] patterns = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = "";
+            keywords[i] = "";
+            patterns[i] = -1;
+        }
+        return new OcrResult(config, values, keywords, patterns, amountNames, new String[amountNames.length]);
+    }
+
+    String getValue(int entry) {
+        return mValues[entry];
+    }
+
+    String getKeyword(int entry) {
+        return mKeywords[entry];
+    }
+
+    int getPattern(int entry) {
+        return mPatterns[entry];
+    }
+
+    String getAmount(int field) {
+        return mAmounts[field];
+    }
+
+    /**
+     * Returns a line per dictionary entry for the overlay, with the keyword and pattern in
+     * debug mode.
+     */
+    String[] getDisplayLines() {
+        String[] lines = new String[mValues.length];
+        for (int i = 0; i < lines.length; i++) {
+            String line = mConfig.dictionary.get(i).name + ":" + (mValues[i].isEmpty() ? DEFAULT_VALUE : mValues[i]);
+            if (mConfig.debug)
+                line += "/" + mKeywords[i] + "/" + (mPatterns[i] + 1);
+            lines[i] = line;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the values by name as returned to the plugin.  Amount fields named like a
+     * dictionary entry do not replace the entry's value.
+     */
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (int i = 0; i < mValues.length; i++) {
+            json.putOpt(mConfig.dictionary.get(i).name, mValues[i]);
+        }
+        for (int f = 0; f < mAmounts.length; f++) {
+            if (mAmounts[f] == null || json.has(mAmountNames[f])) continue;
+            json.putOpt(mAmountNames[f], mAmounts[f]);
+        }
+        return json;
+    }
+}
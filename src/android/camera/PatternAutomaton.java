@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The value patterns of a dictionary entry compiled together into deterministic automata, so a
+ * candidate is matched against all of them in time linear in its length instead of one
+ * backtracking {@link java.util.regex.Matcher} run per pattern.
+ * <p/>
+ * Only the part of the regex syntax the value patterns actually use is understood: literals,
+ * escapes, character classes, {@code .}, groups, alternation and the greedy quantifiers
+ * {@code * + ?} and {@code {n,m}}.  A pattern using anything else (anchors, lazy or possessive
+ * quantifiers, back references, lookaround, flags, Unicode properties, ...) is left out by
+ * {@link #compile} and must be matched with {@code java.util.regex} by the caller.  Patterns are
+ * matched case-insensitively for US-ASCII, as with {@link java.util.regex.Pattern#CASE_INSENSITIVE}.
+ * <p/>
+ * For each pattern the automata report the match {@code Matcher.find()} would: the leftmost
+ * start, and from there the alternatives and repetition counts a backtracking matcher tries
+ * first.  A reverse automaton, unanchored, reads the candidate once from its end and marks where
+ * each pattern's leftmost match starts.  A forward automaton then runs from each distinct start;
+ * its states are the NFA nodes in the order a backtracking matcher would try them, with the
+ * nodes a pattern would only try after one of its matches dropped, so the last match it passes
+ * is the one {@code find()} reports.  A scan thus reads the candidate at most once backwards and
+ * once forwards per pattern.
+ * <p/>
+ * Instances are immutable and may be shared between threads.
+ */
+final class PatternAutomaton {
+
+    /** Compilation gives up, leaving every pattern to java.util.regex, above this many states. */
+    static final int MAX_STATES = 512;
+
+    /** Largest count accepted in a {n,m} quantifier. */
+    private static final int MAX_REPEAT = 32;
+
+    private static final int CHAR_COUNT = Character.MAX_VALUE + 1;
+
+    // Boundaries of the character classes: class c covers [mBounds[c - 1], mBounds[c]).
+    private final char[] mBounds;
+    private final int[] mAsciiClass = new int[128];
+    private final int mClassCount;
+    // Forward and reverse automata; state 0 of the forward one is the dead state.
+    private final Dfa mForward;
+    private final Dfa mReverse;
+    private final int mPatternCount;
+
+    /**
+     * Transition table, state * class count + class, and the patterns accepted in each state.
+     * State 1 is the start state.
+     */
+    private static final class Dfa {
+        final int[] delta;
+        final int[][] accepts;
+
+        Dfa(int[] delta, int[][] accepts) {
+            this.delta = delta;
+            this.accepts = accepts;
+        }
+    }
+
+    private PatternAutomaton(char[] bounds, Dfa forward, Dfa reverse, int patternCount) {
+        mBounds = bounds;
+        mClassCount = bounds.length + 1;
+        mForward = forward;
+        mReverse = reverse;
+        mPatternCount = patternCount;
+        for (char c = 0; c < 128; c++) {
+            mAsciiClass[c] = classOf(c);
+        }
+    }
+
+    /**
+     * Compiles the patterns the automaton supports.
+     *
+     * @param patterns the patterns, null entries being skipped
+     * @param compiled set to true at the position of every pattern that was compiled
+     * @return the automaton, or null if no pattern could be compiled
+     */
+    static PatternAutomaton compile(List<String> patterns, boolean[] compiled) {
+        Nfa nfa = new Nfa();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> accepts = new ArrayList<Integer>();
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern == null) continue;
+            int mark = nfa.size();
+            int setMark = nfa.sets.size();
+            nfa.owner = p;
+            try {
+                int[] fragment = new Parser(pattern, nfa).parse();
+                // A node of its own, tried after whatever the end of the pattern still loops to.
+                int accept = nfa.node();
+                nfa.epsilon(fragment[1], accept);
+                nfa.accept[accept] = p;
+                starts.add(fragment[0]);
+                accepts.add(accept);
+                compiled[p] = true;
+            } catch (UnsupportedOperationException e) {
+                nfa.truncate(mark, setMark);
+            }
+        }
+        if (starts.isEmpty()) return null;
+
+        nfa.owner = -1;
+        nfa.patternCount = patterns.size();
+        int start = nfa.node();
+        for (int s : starts) nfa.epsilon(start, s);
+
+        // Split the characters into classes that every set either fully contains or avoids.
+        BitSet cuts = new BitSet(CHAR_COUNT + 1);
+        for (BitSet set : nfa.sets) {
+            for (int c = set.nextSetBit(0); c >= 0; c = set.nextSetBit(set.nextClearBit(c))) {
+                cuts.set(c);
+                cuts.set(set.nextClearBit(c));
+            }
+        }
+        cuts.clear(0);
+        cuts.clear(CHAR_COUNT);
+        char[] bounds = new char[cuts.cardinality()];
+        char[] representative = new char[bounds.length + 1];
+        for (int c = cuts.nextSetBit(0), i = 0; c >= 0; c = cuts.nextSetBit(c + 1), i++) {
+            bounds[i] = (char) c;
+            representative[i + 1] = (char) c;
+        }
+
+        Dfa forward = determinize(nfa, start, representative, patterns.size(), true);
+        Dfa reverse = forward == null ? null
+                : determinize(nfa.reverse(starts, accepts), 0, representative, patterns.size(), false);
+        if (reverse == null) {
+            Arrays.fill(compiled, false);
+            return null;
+        }
+        return new PatternAutomaton(bounds, forward, reverse, patterns.size());
+    }
+
+    /**
+     * Finds, for every compiled pattern, the match {@code Matcher.find()} would report.
+     *
+     * @param starts set to the start of the match of each pattern, or -1 if it did not match
+     * @param ends   set to the end of the match of each pattern
+     * @return false if the input holds characters the automaton does not handle (surrogate
+     *         pairs), in which case the caller must match it with java.util.regex instead
+     */
+    boolean scan(CharSequence input, int[] starts, int[] ends) {
+        Arrays.fill(starts, 0, mPatternCount, -1);
+        Arrays.fill(ends, 0, mPatternCount, -1);
+        int length = input.length();
+
+        // Backwards, the last position a pattern is accepted at is where its leftmost match starts.
+        int[] delta = mReverse.delta;
+        int[][] accepts = mReverse.accepts;
+        int state = 1;
+        int found = 0;
+        for (int i = length; ; i--) {
+            for (int p : accepts[state]) {
+                if (starts[p] < 0) found++;
+                starts[p] = i;
+            }
+            if (i == 0) break;
+            char c = input.charAt(i - 1);
+            if (Character.isSurrogate(c)) return false;
+            state = delta[state * mClassCount + (c < 128 ? mAsciiClass[c] : classOf(c))];
+        }
+        if (found == 0) return true;
+
+        // Forwards from each start, the last match passed is the one a backtracking matcher takes.
+        delta = mForward.delta;
+        accepts = mForward.accepts;
+        for (int p = 0; p < mPatternCount; p++) {
+            int start = starts[p];
+            if (start < 0 || ends[p] >= 0) continue;
+            state = 1;
+            for (int i = start; ; i++) {
+                for (int q : accepts[state]) {
+                    if (starts[q] == start) ends[q] = i;
+                }
+                if (i == length) break;
+                char c = input.charAt(i);
+                state = delta[state * mClassCount + (c < 128 ? mAsciiClass[c] : classOf(c))];
+                if (state == 0) break;
+            }
+        }
+        return true;
+    }
+
+    private int classOf(char c) {
+        int low = 0, high = mBounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mBounds[mid] <= c) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Subset construction over the character classes.  With {@code ordered} set, states are the
+     * NFA nodes in the order a backtracking matcher tries them, and the nodes a pattern reaches
+     * after one of its accepting nodes are dropped.
+     *
+     * @return the automaton, or null if it needs more than {@link #MAX_STATES} states
+     */
+    private static Dfa determinize(Nfa nfa, int start, char[] representative, int patternCount,
+                                   boolean ordered) {
+        int classCount = representative.length;
+        List<int[]> states = new ArrayList<int[]>();
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        states.add(new int[0]);
+        ids.put("", 0);
+        int[] first = nfa.closure(new int[]{start}, 1, ordered);
+        ids.put(Arrays.toString(first), 1);
+        states.add(first);
+
+        int[] delta = new int[16 * classCount];
+        int[] moved = new int[nfa.size()];
+        for (int state = 1; state < states.size(); state++) {
+            int[] nodes = states.get(state);
+            for (int k = 0; k < classCount; k++) {
+                int count = 0;
+                for (int node : nodes) {
+                    int set = nfa.set[node];
+                    if (set >= 0 && nfa.sets.get(set).get(representative[k])) {
+                        moved[count++] = nfa.next[node];
+                    }
+                }
+                int target = 0;
+                if (count > 0) {
+                    int[] closure = nfa.closure(moved, count, ordered);
+                    String key = Arrays.toString(closure);
+                    Integer id = ids.get(key);
+                    if (id == null) {
+                        if (states.size() >= MAX_STATES) return null;
+                        id = states.size();
+                        ids.put(key, id);
+                        states.add(closure);
+                    }
+                    target = id;
+                }
+                if (delta.length < (state + 1) * classCount) {
+                    delta = Arrays.copyOf(delta, 2 * (state + 1) * classCount);
+                }
+                delta[state * classCount + k] = target;
+            }
+        }
+
+        int[][] accepts = new int[states.size()][];
+        boolean[] seen = new boolean[patternCount];
+        for (int state = 0; state < states.size(); state++) {
+            Arrays.fill(seen, false);
+            int count = 0;
+            for (int node : states.get(state)) {
+                int p = nfa.accept[node];
+                if (p >= 0 && !seen[p]) {
+                    seen[p] = true;
+                    count++;
+                }
+            }
+            accepts[state] = new int[count];
+            for (int p = 0, i = 0; p < patternCount; p++) {
+                if (seen[p]) accepts[state][i++] = p;
+            }
+        }
+        return new Dfa(Arrays.copyOf(delta, states.size() * classCount), accepts);
+    }
+
+    /**
+     * Thompson NFA: every node has either one transition on a character set or any number of
+     * empty transitions, and may accept a pattern.  Empty transitions are kept in the order a
+     * backtracking matcher would follow them.
+     */
+    private static final class Nfa {
+        final List<BitSet> sets = new ArrayList<BitSet>();
+        int[] set = new int[64];
+        int[] next = new int[64];
+        int[] accept = new int[64];
+        // Pattern every node was built for, or -1.
+        int[] owners = new int[64];
+        int[][] epsilon = new int[64][];
+        // Pattern the nodes created next belong to, and one more than the highest pattern index.
+        int owner = -1;
+        int patternCount;
+        private int mSize;
+
+        int size() {
+            return mSize;
+        }
+
+        int node() {
+            if (mSize == set.length) {
+                int size = 2 * mSize;
+                set = Arrays.copyOf(set, size);
+                next = Arrays.copyOf(next, size);
+                accept = Arrays.copyOf(accept, size);
+                owners = Arrays.copyOf(owners, size);
+                epsilon = Arrays.copyOf(epsilon, size);
+            }
+            set[mSize] = -1;
+            accept[mSize] = -1;
+            owners[mSize] = owner;
+            epsilon[mSize] = new int[0];
+            return mSize++;
+        }
+
+        void epsilon(int from, int to) {
+            int[] targets = Arrays.copyOf(epsilon[from], epsilon[from].length + 1);
+            targets[targets.length - 1] = to;
+            epsilon[from] = targets;
+        }
+
+        void transition(int from, BitSet chars, int to) {
+            set[from] = sets.size();
+            sets.add(chars);
+            next[from] = to;
+        }
+
+        void truncate(int size, int setCount) {
+            mSize = size;
+            while (sets.size() > setCount) sets.remove(sets.size() - 1);
+        }
+
+        /**
+         * Returns true if the fragment can be passed without reading a character.
+         */
+        boolean isNullable(int[] fragment) {
+            int[] closure = closure(new int[]{fragment[0]}, 1, false);
+            return Arrays.binarySearch(closure, fragment[1]) >= 0;
+        }
+
+        /**
+         * Returns the automaton of the reversed patterns, made unanchored: its start, node 0,
+         * loops on any character and leads to the accepting node of every pattern, and it
+         * accepts a pattern on reaching the pattern's start node.
+         */
+        Nfa reverse(List<Integer> starts, List<Integer> accepts) {
+            Nfa reversed = new Nfa();
+            int start = reversed.node();
+            int loop = reversed.node();
+            BitSet any = new BitSet(CHAR_COUNT);
+            any.set(0, CHAR_COUNT);
+            reversed.transition(loop, any, start);
+            reversed.epsilon(start, loop);
+
+            int offset = reversed.size();
+            for (int node = 0; node < mSize; node++) reversed.node();
+            for (int node = 0; node < mSize; node++) {
+                for (int target : epsilon[node]) reversed.epsilon(target + offset, node + offset);
+                if (set[node] >= 0) {
+                    // The target of a transition may already have one of its own.
+                    int step = reversed.node();
+                    reversed.epsilon(next[node] + offset, step);
+                    reversed.transition(step, sets.get(set[node]), node + offset);
+                }
+            }
+            for (int p = 0; p < starts.size(); p++) {
+                reversed.epsilon(start, accepts.get(p) + offset);
+                reversed.accept[starts.get(p) + offset] = accept[accepts.get(p)];
+            }
+            return reversed;
+        }
+
+        /**
+         * Returns the nodes reachable from the given ones through empty transitions: sorted, or,
+         * if {@code ordered}, in the order a backtracking matcher reaches them, without the
+         * nodes a pattern reaches after one of its accepting nodes.
+         */
+        int[] closure(int[] nodes, int count, boolean ordered) {
+            boolean[] in = new boolean[mSize];
+            int[] stack = new int[mSize + count];
+            int[] reached = new int[mSize];
+            int size = 0;
+            if (ordered) {
+                // Depth first, trying the empty transitions of a node in order.
+                int top = 0;
+                for (int i = count - 1; i >= 0; i--) stack[top++] = nodes[i];
+                while (top > 0) {
+                    int node = stack[--top];
+                    if (in[node]) continue;
+                    in[node] = true;
+                    reached[size++] = node;
+                    int[] targets = epsilon[node];
+                    for (int i = targets.length - 1; i >= 0; i--) {
+                        if (!in[targets[i]]) {
+                            if (top == stack.length) stack = Arrays.copyOf(stack, 2 * top);
+                            stack[top++] = targets[i];
+                        }
+                    }
+                }
+                boolean[] matched = new boolean[patternCount];
+                int kept = 0;
+                for (int i = 0; i < size; i++) {
+                    int node = reached[i];
+                    int owner = owners[node];
+                    if (owner >= 0 && matched[owner]) continue;
+                    if (accept[node] >= 0) matched[owner] = true;
+                    reached[kept++] = node;
+                }
+                return Arrays.copyOf(reached, kept);
+            }
+
+            int top = 0;
+            for (int i = 0; i < count; i++) {
+                if (!in[nodes[i]]) {
+                    in[nodes[i]] = true;
+                    stack[top++] = nodes[i];
+                }
+            }
+            while (top > 0) {
+                for (int target : epsilon[stack[--top]]) {
+                    if (!in[target]) {
+                        in[target] = true;
+                        stack[top++] = target;
+                    }
+                }
+            }
+            for (int node = 0; node < mSize; node++) {
+                if (in[node]) reached[size++] = node;
+            }
+            return Arrays.copyOf(reached, size);
+        }
+    }
+
+    /**
+     * Recursive descent parser building the NFA fragment of one pattern.  Fragments are
+     * {start, end} node pairs, the end node having no transitions yet.  Throws
+     * UnsupportedOperationException on syntax it does not handle.
+     */
+    private static final class Parser {
+        private final String mPattern;
+        private final Nfa mNfa;
+        private int mPos;
+
+        Parser(String pattern, Nfa nfa) {
+            mPattern = pattern;
+            mNfa = nfa;
+        }
+
+        int[] parse() {
+            int[] fragment = alternation();
+            if (mPos != mPattern.length()) throw new UnsupportedOperationException();
+            return fragment;
+        }
+
+        private int[] alternation() {
+            int[] fragment = sequence();
+            if (!peek('|')) return fragment;
+
+            int start = mNfa.node();
+            int end = mNfa.node();
+            mNfa.epsilon(start, fragment[0]);
+            mNfa.epsilon(fragment[1], end);
+            while (peek('|')) {
+                mPos++;
+                int[] alternative = sequence();
+                mNfa.epsilon(start, alternative[0]);
+                mNfa.epsilon(alternative[1], end);
+            }
+            return new int[]{start, end};
+        }
+
+        private int[] sequence() {
+            int start = mNfa.node();
+            int end = start;
+            while (mPos < mPattern.length() && !peek('|') && !peek(')')) {
+                int[] fragment = repetition();
+                mNfa.epsilon(end, fragment[0]);
+                end = fragment[1];
+            }
+            return new int[]{start, end};
+        }
+
+        private int[] repetition() {
+            int atomStart = mPos;
+            int[] fragment = atom();
+            if (mPos >= mPattern.length()) return fragment;
+
+            int min, max;
+            char c = mPattern.charAt(mPos);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+                mPos++;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+                mPos++;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+                mPos++;
+            } else if (c == '{') {
+                int close = mPattern.indexOf('}', mPos);
+                if (close < 0) throw new UnsupportedOperationException();
+                String[] counts = mPattern.substring(mPos + 1, close).split(",", -1);
+                try {
+                    min = Integer.parseInt(counts[0]);
+                    max = counts.length == 1 ? min : counts[1].isEmpty() ? -1 : Integer.parseInt(counts[1]);
+                } catch (NumberFormatException e) {
+                    throw new UnsupportedOperationException();
+                }
+                if (counts.length > 2 || min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+                    throw new UnsupportedOperationException();
+                }
+                mPos = close + 1;
+            } else {
+                return fragment;
+            }
+            // Lazy and possessive quantifiers, and quantified quantifiers.
+            if (mPos < mPattern.length() && "?+*{".indexOf(mPattern.charAt(mPos)) >= 0) {
+                throw new UnsupportedOperationException();
+            }
+            // java.util.regex has rules of its own for repeats that match the empty string.
+            if (mNfa.isNullable(fragment)) throw new UnsupportedOperationException();
+            int atomEnd = mPos;
+            if (max == 0) {
+                int empty = mNfa.node();
+                return new int[]{empty, empty};
+            }
+
+            // Build the copies the counts need by parsing the atom again.
+            int start = mNfa.node();
+            int end = start;
+            for (int i = 0; i < Math.max(min, 1); i++) {
+                int[] copy = i == 0 ? fragment : reparse(atomStart);
+                if (i >= min) {
+                    // Only reached for min == 0: the single copy is optional.
+                    int skip = mNfa.node();
+                    mNfa.epsilon(end, copy[0]);
+                    mNfa.epsilon(end, skip);
+                    // Greedy: another round is tried before leaving the loop.
+                    if (max < 0) mNfa.epsilon(copy[1], copy[0]);
+                    mNfa.epsilon(copy[1], skip);
+                    end = skip;
+                } else {
+                    mNfa.epsilon(end, copy[0]);
+                    end = copy[1];
+                    if (max < 0 && i == min - 1) mNfa.epsilon(copy[1], copy[0]);
+                }
+            }
+            for (int i = Math.max(min, 1); i < max; i++) {
+                int[] copy = reparse(atomStart);
+                int skip = mNfa.node();
+                mNfa.epsilon(end, copy[0]);
+                mNfa.epsilon(end, skip);
+                mNfa.epsilon(copy[1], skip);
+                end = skip;
+            }
+            mPos = atomEnd;
+            return new int[]{start, end};
+        }
+
+        private int[] reparse(int atomStart) {
+            int pos = mPos;
+            mPos = atomStart;
+            int[] copy = atom();
+            mPos = pos;
+            return copy;
+        }
+
+        private int[] atom() {
+            char c = mPattern.charAt(mPos++);
+            switch (c) {
+                case '(':
+                    if (peek('?')) {
+                        if (!mPattern.startsWith("?:", mPos)) throw new UnsupportedOperationException();
+                        mPos += 2;
+                    }
+                    int[] group = alternation();
+                    if (!peek(')')) throw new UnsupportedOperationException();
+                    mPos++;
+                    return group;
+                case '[':
+                    return single(characterClass());
+                case '.': {
+                    BitSet chars = new BitSet(CHAR_COUNT);
+                    chars.set(0, CHAR_COUNT);
+                    chars.clear('\n');
+                    chars.clear('\r');
+                    chars.clear(0x85);
+                    chars.clear(0x2028);
+                    chars.clear(0x2029);
+                    return single(chars);
+                }
+                case '\\':
+                    return single(escape(false));
+                case '^':
+                case '$':
+                case ')':
+                case '|':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedOperationException();
+                default:
+                    return single(literal(c));
+            }
+        }
+
+        private int[] single(BitSet chars) {
+            int start = mNfa.node();
+            int end = mNfa.node();
+            mNfa.transition(start, foldCase(chars), end);
+            return new int[]{start, end};
+        }
+
+        private BitSet characterClass() {
+            boolean negated = peek('^');
+            if (negated) mPos++;
+            if (peek(']')) throw new UnsupportedOperationException();
+
+            BitSet chars = new BitSet(CHAR_COUNT);
+            while (true) {
+                if (mPos >= mPattern.length()) throw new UnsupportedOperationException();
+                char c = mPattern.charAt(mPos++);
+                if (c == ']') break;
+                if (c == '[' || (c == '&' && peek('&'))) throw new UnsupportedOperationException();
+
+                BitSet item = c == '\\' ? escape(true) : literal(c);
+                if (item.cardinality() == 1 && peek('-') && mPos + 1 < mPattern.length()
+                        && mPattern.charAt(mPos + 1) != ']') {
+                    mPos++;
+                    char d = mPattern.charAt(mPos++);
+                    BitSet last = d == '\\' ? escape(true) : literal(d);
+                    if (last.cardinality() != 1) throw new UnsupportedOperationException();
+                    int from = item.nextSetBit(0), to = last.nextSetBit(0);
+                    if (to < from) throw new UnsupportedOperationException();
+                    chars.set(from, to + 1);
+                } else {
+                    chars.or(item);
+                }
+            }
+
+            if (negated) {
+                chars = foldCase(chars);
+                chars.flip(0, CHAR_COUNT);
+            }
+            return chars;
+        }
+
+        private BitSet escape(boolean inClass) {
+            if (mPos >= mPattern.length()) throw new UnsupportedOperationException();
+            char c = mPattern.charAt(mPos++);
+            BitSet chars = new BitSet(CHAR_COUNT);
+            switch (c) {
+                case 'd':
+                case 'D':
+                    chars.set('0', '9' + 1);
+                    break;
+                case 'w':
+                case 'W':
+                    chars.set('a', 'z' + 1);
+                    chars.set('A', 'Z' + 1);
+                    chars.set('0', '9' + 1);
+                    chars.set('_');
+                    break;
+                case 's':
+                case 'S':
+                    chars.set(' ');
+                    chars.set('\t');
+                    chars.set('\n');
+                    chars.set(0x0B);
+                    chars.set('\f');
+                    chars.set('\r');
+                    break;
+                case 't':
+                    return literal('\t');
+                case 'n':
+                    return literal('\n');
+                case 'r':
+                    return literal('\r');
+                case 'f':
+                    return literal('\f');
+                case 'x':
+                    return literal(hex(2));
+                case 'u':
+                    return literal(hex(4));
+                default:
+                    if (Character.isLetterOrDigit(c)) throw new UnsupportedOperationException();
+                    return literal(c);
+            }
+            if (Character.isUpperCase(c)) chars.flip(0, CHAR_COUNT);
+            return chars;
+        }
+
+        private char hex(int digits) {
+            if (mPos + digits > mPattern.length()) throw new UnsupportedOperationException();
+            try {
+                char c = (char) Integer.parseInt(mPattern.substring(mPos, mPos + digits), 16);
+                mPos += digits;
+                return c;
+            } catch (NumberFormatException e) {
+                throw new UnsupportedOperationException();
+            }
+        }
+
+        private static BitSet literal(char c) {
+            if (Character.isSurrogate(c)) throw new UnsupportedOperationException();
+            BitSet chars = new BitSet(CHAR_COUNT);
+            chars.set(c);
+            return chars;
+        }
+
+        private boolean peek(char c) {
+            return mPos < mPattern.length() && mPattern.charAt(mPos) == c;
+        }
+    }
+
+    /**
+     * Adds the other case of every US-ASCII letter in the set.
+     */
+    private static BitSet foldCase(BitSet chars) {
+        BitSet folded = (BitSet) chars.clone();
+        for (char c = 'a'; c <= 'z'; c++) {
+            char upper = (char) (c - 'a' + 'A');
+            if (chars.get(c) || chars.get(upper)) {
+                folded.set(c);
+                folded.set(upper);
+            }
+        }
+        return folded;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+/**
+ * Spots value patterns shaped for catastrophic backtracking, where a repeated group can itself
+ * match in many ways, such as {@code (a+)+}, {@code (\w*\s?)*} or {@code (x{2,})*}.  On a long
+ * line that almost matches, java.util.regex tries every way of splitting it between the inner
+ * and the outer repetition, which takes exponential time.
+ * <p/>
+ * The check is syntactic and errs on the side of warning: it flags any group that contains an
+ * unbounded quantifier and is itself repeated without bound.
+ */
+final class PatternGuard {
+
+    private PatternGuard() {
+    }
+
+    /**
+     * Returns true if the pattern repeats, without bound, a group that holds an unbounded
+     * repetition.
+     */
+    static boolean hasNestedRepetition(String pattern) {
+        // Whether each open group holds an unbounded quantifier, innermost last.
+        boolean[] unbounded = new boolean[pattern.length() + 1];
+        int depth = 0;
+        // Whether the atom just parsed is a group holding an unbounded quantifier.
+        boolean lastGroupUnbounded = false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            boolean group = false;
+            switch (c) {
+                case '\\':
+                    i++;
+                    break;
+                case '[':
+                    i = skipClass(pattern, i);
+                    break;
+                case '(':
+                    unbounded[++depth] = false;
+                    break;
+                case ')':
+                    if (depth > 0) {
+                        lastGroupUnbounded = unbounded[depth--];
+                        if (lastGroupUnbounded) unbounded[depth] = true;
+                        group = true;
+                    }
+                    break;
+                case '*':
+                case '+':
+                case '{':
+                    int end = c == '{' ? pattern.indexOf('}', i) : i;
+                    if (end < 0) break;
+                    boolean isUnbounded = c != '{' || pattern.substring(i, end).indexOf(',') == end - i - 1;
+                    if (isUnbounded) {
+                        if (lastGroupUnbounded) return true;
+                        unbounded[depth] = true;
+                    }
+                    i = end;
+                    break;
+                default:
+                    break;
+            }
+            if (!group && c != '*' && c != '+' && c != '{' && c != '?') lastGroupUnbounded = false;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the bracket closing the class opened at {@code start}.
+     */
+    private static int skipClass(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^') i++;
+        if (i < pattern.length() && pattern.charAt(i) == ']') i++;
+        int nested = 0;
+        for (; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                nested++;
+            } else if (c == ']') {
+                if (nested-- == 0) return i;
+            }
+        }
+        return pattern.length();
+    }
+}
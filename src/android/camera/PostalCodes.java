@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Registry of the postal code matchers used to spot a service address without a keyword.
+ * <p/>
+ * The patterns of each country live in a raw resource named {@code ocr_postal_<country>}, where
+ * the country is the {@link OcrConfig#country} lower-cased with spaces replaced by
+ * underscores (e.g. {@code ocr_postal_united_kingdom}).  A pack is read the first time its country
+ * is requested and compiled into a single alternation, which is then shared by every processor.
+ * Like value patterns, it is matched within the session's step budget.
+ */
+final class PostalCodes {
+    private static final String TAG = PostalCodes.class.getSimpleName();
+
+    private static final String PACK_PREFIX = "ocr_postal_";
+
+    private static final Map<String, String> ALIASES = new HashMap<String, String>();
+    static {
+        ALIASES.put("au", "australia");
+        ALIASES.put("nz", "new_zealand");
+        ALIASES.put("uk", "united_kingdom");
+        ALIASES.put("gb", "united_kingdom");
+        ALIASES.put("great_britain", "united_kingdom");
+        ALIASES.put("us", "united_states");
+        ALIASES.put("usa", "united_states");
+        ALIASES.put("united_states_of_america", "united_states");
+        ALIASES.put("ca", "canada");
+    }
+
+    // Guarded by itself.  Countries without a pack map to null so they are only looked up once.
+    private static final Map<String, Pattern> sPatterns = new HashMap<String, Pattern>();
+
+    private PostalCodes() {
+    }
+
+    /**
+     * Returns the combined postal code pattern for the given country, or null if there is no
+     * pack for it.
+     */
+    static Pattern forCountry(Context context, String country) {
+        if (country == null || country.trim().isEmpty()) return null;
+
+        String key = country.trim().toLowerCase(Locale.US).replaceAll("[^a-z0-9]+", "_");
+        if (ALIASES.containsKey(key)) key = ALIASES.get(key);
+
+        synchronized (sPatterns) {
+            if (!sPatterns.containsKey(key)) {
+                sPatterns.put(key, load(context, PACK_PREFIX + key));
+            }
+            return sPatterns.get(key);
+        }
+    }
+
+    private static Pattern load(Context context, String pack) {
+        int id = context.getResources().getIdentifier(pack, "raw", context.getPackageName());
+        if (id == 0) {
+            Log.w(TAG, "No postal code pack: " + pack);
+            return null;
+        }
+
+        StringBuilder combined = new StringBuilder();
+        InputStream in = context.getResources().openRawResource(id);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    Pattern.compile(line);
+                } catch (PatternSyntaxException e) {
+                    Log.w(TAG, "Ignoring invalid postal code pattern in " + pack + ": " + line, e);
+                    continue;
+                }
+                if (PatternGuard.hasNestedRepetition(line)) {
+                    Log.w(TAG, "Postal code pattern in " + pack + " may backtrack catastrophically: " + line);
+                }
+                if (combined.length() > 0) combined.append('|');
+                combined.append("(?:").append(line).append(')');
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read postal code pack " + pack, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+
+        return combined.length() == 0 ? null : Pattern.compile(combined.toString());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import java.util.Arrays;
+
+/**
+ * The order in which one dictionary entry tries its {@link FieldExtractor} strategies, learned
+ * from which of them found its value in recent frames.
+ * <p/>
+ * A document of one biller lays a field out the same way on every frame, so the strategy that
+ * found it last time will most likely find it again.  Strategies are ranked by how many of the
+ * last {@link #HISTORY_SIZE} values they found, ties keeping the configured order.  A strategy
+ * that ran without finding anything {@link #DEMOTE_AFTER_MISSES} times in a row goes after all
+ * the others, until it finds a value again.
+ * <p/>
+ * The entry stops at the first strategy that finds a value, so the ranking changes which value
+ * is read, not just how soon.  When several strategies would each find a value, the configured
+ * order decides only until one of them has won more often; from then on the entry reads the
+ * value where its recent frames found it.  A demoted strategy still runs when all the others
+ * fail, so a value is still found whenever one of the strategies finds it.
+ * <p/>
+ * Not thread safe; a ranking belongs to the thread processing the frames.
+ */
+final class StrategyRanking {
+
+    static final int HISTORY_SIZE = 16;
+    static final int DEMOTE_AFTER_MISSES = 8;
+
+    // Strategy positions, in the order they are tried.
+    private final int[] mOrder;
+    // Ring of the positions of the strategies that found the last values.
+    private final int[] mHistory = new int[HISTORY_SIZE];
+    private int mHistoryCount;
+    private int mHistoryNext;
+    private final int[] mMisses;
+    private final int[] mWins;
+
+    /**
+     * @param count the number of strategies, ranked initially in their configured order
+     */
+    StrategyRanking(int count) {
+        mOrder = new int[count];
+        for (int i = 0; i < count; i++) {
+            mOrder[i] = i;
+        }
+        mMisses = new int[count];
+        mWins = new int[count];
+    }
+
+    int size() {
+        return mOrder.length;
+    }
+
+    /**
+     * Returns the position of the strategy to try {@code rank}-th.
+     */
+    int strategyAt(int rank) {
+        return mOrder[rank];
+    }
+
+    void recordMiss(int strategy) {
+        mMisses[strategy]++;
+    }
+
+    void recordHit(int strategy) {
+        mMisses[strategy] = 0;
+        mHistory[mHistoryNext] = strategy;
+        mHistoryNext = (mHistoryNext + 1) % HISTORY_SIZE;
+        if (mHistoryCount < HISTORY_SIZE) mHistoryCount++;
+    }
+
+    /**
+     * Re-ranks the strategies after the hits and misses recorded for a frame.
+     */
+    void update() {
+        Arrays.fill(mWins, 0);
+        for (int i = 0; i < mHistoryCount; i++) {
+            mWins[mHistory[i]]++;
+        }
+
+        // Insertion sort of a handful of strategies.
+        for (int i = 1; i < mOrder.length; i++) {
+            int strategy = mOrder[i];
+            int j = i - 1;
+            while (j >= 0 && before(strategy, mOrder[j])) {
+                mOrder[j + 1] = mOrder[j];
+                j--;
+            }
+            mOrder[j + 1] = strategy;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        boolean demotedA = mMisses[a] >= DEMOTE_AFTER_MISSES;
+        boolean demotedB = mMisses[b] >= DEMOTE_AFTER_MISSES;
+        if (demotedA != demotedB) return demotedB;
+        if (mWins[a] != mWins[b]) return mWins[a] > mWins[b];
+        return a < b;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+/**
+ * A reusable window onto part of a string, used to hand a piece of a component's value to the
+ * value matcher without cutting a substring out of it.  A String is only created if the span is
+ * kept, through {@link #toString()} or {@link #subSequence(int, int)}.
+ */
+final class TextSpan implements CharSequence {
+    private String mText = "";
+    private int mStart;
+    private int mEnd;
+
+    /**
+     * Points the span at {@code text[start, end)} with leading and trailing whitespace removed,
+     * as {@link String#trim()} would.
+     */
+    TextSpan setTrimmed(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        mText = text;
+        mStart = start;
+        mEnd = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return mEnd - mStart;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mText.charAt(mStart + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mText.substring(mStart + start, mStart + end);
+    }
+
+    @Override
+    public String toString() {
+        return mText.substring(mStart, mEnd);
+    }
+}
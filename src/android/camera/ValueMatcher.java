@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The value patterns of one dictionary entry, compiled once when the dictionary is parsed.
+ * <p/>
+ * A match is reported as a packed long holding the matched span and the index of the pattern
+ * that produced it, so matching a candidate string neither compiles nor boxes anything.  Use
+ * {@link #start(long)}, {@link #end(long)} and {@link #pattern(long)} to unpack it.
+ * <p/>
+ * Patterns within the syntax {@link PatternAutomaton} understands are matched together in one
+ * scan of the candidate; the others, and candidates the automaton cannot scan, go through
+ * java.util.regex one pattern at a time.  Both read the candidate through a
+ * {@link BudgetedSequence}, so a scan or a pattern that backtracks catastrophically gives up
+ * after a bounded number of steps and counts as not matching; {@link #getTimeoutCount()} tells
+ * how often that happened.
+ * <p/>
+ * The cached {@link Matcher}s make an instance unsafe to share between threads; each session
+ * takes its own copy of an entry's matcher with {@link #fork()} and only matches the entry from
+ * one thread at a time.
+ */
+final class ValueMatcher {
+    private static final String TAG = ValueMatcher.class.getSimpleName();
+
+    /** Returned by {@link #match(CharSequence)} when no pattern matches. */
+    static final long NO_MATCH = -1L;
+
+    private static final int SPAN_BITS = 24;
+    private static final long SPAN_MASK = (1L << SPAN_BITS) - 1;
+
+    /** Default number of character reads a scan or java.util.regex run may take on one candidate. */
+    static final int DEFAULT_STEP_BUDGET = 100000;
+
+    private final Matcher[] mMatchers;
+    // All the patterns that compile into an automaton, or null if none do.
+    private final PatternAutomaton mAutomaton;
+    private final boolean[] mInAutomaton;
+    private final int[] mStarts;
+    private final int[] mEnds;
+
+    private final int mStepBudget;
+    private final BudgetedSequence mBudgeted = new BudgetedSequence();
+    private long mTimeouts;
+
+    /**
+     * Compiles the supplied patterns case-insensitively.  A pattern that fails to compile is
+     * logged and skipped, but keeps its index so {@link #pattern(long)} still refers to the
+     * position in the configured list.
+     *
+     * @param patterns the patterns of the entry, or null if it accepts any value
+     * @param stepBudget the number of character reads after which a scan or a java.util.regex
+     *                   run gives up
+     */
+    ValueMatcher(List<String> patterns, int stepBudget) {
+        mStepBudget = stepBudget;
+        int count = patterns == null ? 0 : patterns.size();
+        mMatchers = new Matcher[count];
+        List<String> valid = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                mMatchers[i] = Pattern.compile(patterns.get(i), Pattern.CASE_INSENSITIVE).matcher("");
+                valid.add(patterns.get(i));
+            } catch (PatternSyntaxException e) {
+                Log.w(TAG, "Ignoring invalid value pattern: " + patterns.get(i), e);
+                valid.add(null);
+            }
+        }
+
+        mInAutomaton = new boolean[count];
+        mAutomaton = count == 0 ? null : PatternAutomaton.compile(valid, mInAutomaton);
+        mStarts = new int[count];
+        mEnds = new int[count];
+
+        // Patterns in the automaton still run through java.util.regex on candidates it cannot
+        // scan, so they are checked as well.
+        for (int i = 0; i < count; i++) {
+            if (mMatchers[i] != null && PatternGuard.hasNestedRepetition(patterns.get(i))) {
+                Log.w(TAG, "Value pattern may backtrack catastrophically, matching it within "
+                        + stepBudget + " steps: " + patterns.get(i));
+            }
+        }
+    }
+
+    /**
+     * Copies a matcher for use by another session.  The compiled patterns and automaton are
+     * shared; the matchers, scratch arrays and counters are the copy's own.
+     */
+    private ValueMatcher(ValueMatcher compiled) {
+        mStepBudget = compiled.mStepBudget;
+        mMatchers = new Matcher[compiled.mMatchers.length];
+        for (int i = 0; i < mMatchers.length; i++) {
+            Matcher matcher = compiled.mMatchers[i];
+            mMatchers[i] = matcher == null ? null : matcher.pattern().matcher("");
+        }
+        mAutomaton = compiled.mAutomaton;
+        mInAutomaton = compiled.mInAutomaton;
+        mStarts = new int[mMatchers.length];
+        mEnds = new int[mMatchers.length];
+    }
+
+    /**
+     * Returns a matcher with the same patterns that can be used independently of this one.
+     */
+    ValueMatcher fork() {
+        return new ValueMatcher(this);
+    }
+
+    /**
+     * Returns true if this matcher has no patterns, in which case any non-empty string is
+     * accepted as a whole.
+     */
+    boolean acceptsAny() {
+        return mMatchers.length == 0;
+    }
+
+    /**
+     * Finds the longest non-empty match of any pattern in the supplied string.  On equal lengths
+     * the pattern listed first wins.
+     *
+     * @return the packed match, or {@link #NO_MATCH}
+     */
+    long match(CharSequence input) {
+        if (input == null || input.length() == 0) return NO_MATCH;
+        if (acceptsAny()) return pack(-1, 0, input.length());
+
+        boolean scanned = false;
+        boolean exhausted = false;
+        if (mAutomaton != null) {
+            try {
+                scanned = mAutomaton.scan(mBudgeted.reset(input, mStepBudget), mStarts, mEnds);
+            } catch (BudgetedSequence.Exhausted e) {
+                mTimeouts++;
+                exhausted = true;
+            }
+        }
+
+        long best = NO_MATCH;
+        int bestLength = 0;
+        for (int i = 0; i < mMatchers.length; i++) {
+            Matcher matcher = mMatchers[i];
+            if (matcher == null) continue;
+
+            int start, end;
+            if (exhausted && mInAutomaton[i]) {
+                continue;
+            } else if (scanned && mInAutomaton[i]) {
+                if (mStarts[i] < 0) continue;
+                start = mStarts[i];
+                end = mEnds[i];
+            } else {
+                matcher.reset(mBudgeted.reset(input, mStepBudget));
+                try {
+                    if (!matcher.find()) continue;
+                } catch (BudgetedSequence.Exhausted e) {
+                    mTimeouts++;
+                    continue;
+                }
+                start = matcher.start();
+                end = matcher.end();
+            }
+            if (end - start > bestLength) {
+                best = pack(i, start, end);
+                bestLength = end - start;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns how many scans and java.util.regex runs gave up for running out of steps.
+     */
+    long getTimeoutCount() {
+        return mTimeouts;
+    }
+
+    static long pack(int pattern, int start, int end) {
+        return ((long) (pattern + 1) << (2 * SPAN_BITS)) | ((long) start << SPAN_BITS) | end;
+    }
+
+    /** Start offset of a packed match. */
+    static int start(long match) {
+        return (int) ((match >>> SPAN_BITS) & SPAN_MASK);
+    }
+
+    /** End offset (exclusive) of a packed match. */
+    static int end(long match) {
+        return (int) (match & SPAN_MASK);
+    }
+
+    /** Index of the pattern that produced a packed match, or -1 if the entry has no patterns. */
+    static int pattern(long match) {
+        return (int) (match >>> (2 * SPAN_BITS)) - 1;
+    }
+}
@@ -20,6 +20,8 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
@@ -36,17 +38,13 @@ import android.view.WindowManager;
 
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
-import com.google.android.gms.vision.Frame;
 
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
@@ -64,6 +62,8 @@ import java.util.Map;
  * the capabilities of the camera hardware and the detector options that you have selected.  If CPU
  * utilization is higher than you'd like, then you may want to consider reducing FPS.  If the camera
  * preview or detector results are too "jerky", then you may want to consider increasing FPS.
+ * Alternatively, {@link CameraSource.Builder#setDetectionFpsRange(float, float)} paces detection
+ * at runtime to the measured speed of the detector, independently of the camera frame rate.
  * <p/>
  * The following Android permission is required to use the camera:
  * <ul>
@@ -135,10 +135,28 @@ public class CameraSource {
     private int mRequestedPreviewWidth = 1024;
     private int mRequestedPreviewHeight = 768;
 
+    // Bounds of the rate frames are detected at, paced to the detector, or 0 to detect every
+    // frame there is time for.
+    private float mMinDetectionFps;
+    private float mMaxDetectionFps;
+
+    // Region of interest as fractions of the upright preview, or null for the whole preview, and
+    // that region in upright preview pixels once the camera is open.
+    private RectF mRegionOfInterest;
+    private Rect mRegionOfInterestPixels;
+
+    // Longest side of the frames passed to the detector, or 0 for the preview resolution, and the
+    // factor the preview is shrunk by to get there once the camera is open.
+    private int mRequestedDetectionSize;
+    private int mDetectionScale = 1;
 
     private String mFocusMode = null;
     private String mFlashMode = null;
 
+    // Whether the session logs its frame buffer and detection rate statistics when the camera
+    // stops.
+    private boolean mDebug;
+
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
     // references maintained to them.
@@ -149,15 +167,16 @@ public class CameraSource {
      * Dedicated thread and associated runnable for calling into the detector with frames, as the
      * frames become available from the camera.
      */
-    private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
+    private final CameraFrameSource mCameraFrames = new CameraFrameSource();
+    private FramePipeline mPipeline;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Preview buffers shared with the camera, along with the byte buffers wrapping them.  We use
+     * byte buffers internally because this is a more efficient way to call into native code later
+     * (avoids a potential copy).  The buffers are kept across restarts.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<byte[], ByteBuffer>();
+    private int mFrameBufferDepth = FrameBufferPool.DEFAULT_DEPTH;
+    private FrameBufferPool mBufferPool;
 
     //==============================================================================================
     // Builder
@@ -198,6 +217,21 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Paces detection to the measured latency of the detector, skipping preview frames so
+         * that it detects between minFps and maxFps frames per second, as far as the camera and
+         * the detector allow.  The camera frame rate should be at least maxFps.  Default: every
+         * frame there is time for is detected.
+         */
+        public Builder setDetectionFpsRange(float minFps, float maxFps) {
+            if (minFps <= 0 || maxFps < minFps) {
+                throw new IllegalArgumentException("Invalid fps range: " + minFps + " - " + maxFps);
+            }
+            mCameraSource.mMinDetectionFps = minFps;
+            mCameraSource.mMaxDetectionFps = maxFps;
+            return this;
+        }
+
         public Builder setFocusMode(@FocusMode String mode) {
             mCameraSource.mFocusMode = mode;
             return this;
@@ -227,6 +261,58 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets how many preview buffers are shared with the camera.  More buffers let the camera
+         * keep delivering frames while detection holds some of them, at the cost of one preview
+         * frame of memory each.  Default: 4.
+         */
+        public Builder setFrameBufferDepth(int depth) {
+            if (depth < FrameBufferPool.MIN_DEPTH) {
+                throw new IllegalArgumentException("Invalid frame buffer depth: " + depth);
+            }
+            mCameraSource.mFrameBufferDepth = depth;
+            return this;
+        }
+
+        /**
+         * Sets the longest side, in pixels, of the frames passed to the detector, independently
+         * of the preview size.  The preview, or its region of interest, is shrunk by the smallest
+         * whole factor that fits; see {@link #getDetectionScale()}.  Default: 0, detection at the
+         * preview resolution.
+         */
+        public Builder setRequestedDetectionSize(int longSide) {
+            if (longSide < 0) {
+                throw new IllegalArgumentException("Invalid detection size: " + longSide);
+            }
+            mCameraSource.mRequestedDetectionSize = longSide;
+            return this;
+        }
+
+        /**
+         * Restricts detection to a region of the preview, given as fractions of the width and
+         * height of the upright preview.  Only that region is passed to the detector, and the
+         * boxes it finds are relative to it; see {@link #getRegionOfInterest()}.  Default: the
+         * whole preview.
+         */
+        public Builder setRegionOfInterest(RectF fractions) {
+            if (fractions != null && (fractions.left < 0 || fractions.top < 0 || fractions.right > 1
+                    || fractions.bottom > 1 || fractions.left >= fractions.right
+                    || fractions.top >= fractions.bottom)) {
+                throw new IllegalArgumentException("Invalid region of interest: " + fractions);
+            }
+            mCameraSource.mRegionOfInterest = fractions == null ? null : new RectF(fractions);
+            return this;
+        }
+
+        /**
+         * Logs how the frame buffers were used and the rate frames were detected at each time the
+         * camera stops.  Default: false.
+         */
+        public Builder setDebug(boolean debug) {
+            mCameraSource.mDebug = debug;
+            return this;
+        }
+
         /**
          * Sets the camera to use (either {@link #CAMERA_FACING_BACK} or
          * {@link #CAMERA_FACING_FRONT}). Default: back facing.
@@ -243,7 +329,13 @@ public class CameraSource {
          * Creates an instance of the camera source.
          */
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
+            mCameraSource.mBufferPool = new FrameBufferPool(mCameraSource.mFrameBufferDepth);
+            mCameraSource.mPipeline = new FramePipeline(mCameraSource.mCameraFrames, mDetector);
+            mCameraSource.mPipeline.setDebug(mCameraSource.mDebug);
+            if (mCameraSource.mMaxDetectionFps > 0) {
+                mCameraSource.mPipeline.setFrameRateBounds(
+                        mCameraSource.mMinDetectionFps, mCameraSource.mMaxDetectionFps);
+            }
             return mCameraSource;
         }
     }
@@ -321,7 +413,7 @@ public class CameraSource {
     public void release() {
         synchronized (mCameraLock) {
             stop();
-            mFrameProcessor.release();
+            mPipeline.release();
         }
     }
 
@@ -352,9 +444,7 @@ public class CameraSource {
             }
             mCamera.startPreview();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            mPipeline.start();
         }
         return this;
     }
@@ -378,9 +468,7 @@ public class CameraSource {
             mCamera.setPreviewDisplay(surfaceHolder);
             mCamera.startPreview();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            mPipeline.start();
         }
         return this;
     }
@@ -396,21 +484,8 @@ public class CameraSource {
      */
     public void stop() {
         synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
-                }
-                mProcessingThread = null;
-            }
-
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+            // Stops the processing thread and takes the preview buffers back from the camera.
+            mPipeline.stop();
 
             if (mCamera != null) {
                 mCamera.stopPreview();
@@ -444,6 +519,22 @@ public class CameraSource {
         return mPreviewSize;
     }
 
+    /**
+     * Returns the region of the upright preview the detector sees, in preview pixels, or null if
+     * it sees the whole preview.  Boxes found by the detector are relative to the region's top
+     * left corner.
+     */
+    public Rect getRegionOfInterest() {
+        return mRegionOfInterestPixels;
+    }
+
+    /**
+     * Returns the factor detected boxes must be multiplied by to get back to preview pixels.
+     */
+    public int getDetectionScale() {
+        return mDetectionScale;
+    }
+
     /**
      * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
      * {@link #CAMERA_FACING_FRONT}.
@@ -804,16 +895,14 @@ public class CameraSource {
 
         camera.setParameters(parameters);
 
-        // Four frame buffers are needed for working with the camera:
+        // At least three frame buffers are needed for working with the camera, four by default:
         //
         //   one for the frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
+        //   the rest for the frames that the camera uses to populate future preview images
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
+        mBufferPool.attach(camera, getPreviewBufferSize(mPreviewSize));
+        setDetectionRegion();
 
         return camera;
     }
@@ -1026,32 +1115,57 @@ public class CameraSource {
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
-     *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * Maps the region of interest to the preview size and rotation just selected, works out the
+     * detection scale, and hands both to the frame pipeline.
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
-        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
-        long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    private void setDetectionRegion() {
+        int width = mPreviewSize.getWidth();
+        int height = mPreviewSize.getHeight();
+        Rect sensor = getCrop(width, height);
+        mPipeline.setCrop(sensor);
+
+        mDetectionScale = FrameScaler.factorFor(
+                sensor != null ? sensor : new Rect(0, 0, width, height), mRequestedDetectionSize);
+        mPipeline.setDownscale(mDetectionScale);
+    }
 
-        //
-        // NOTICE: This code only works when using play services v. 8.1 or higher.
-        //
+    /**
+     * Returns the region of interest in sensor coordinates, or null to detect on whole frames,
+     * and keeps it in upright preview pixels for the overlay.
+     */
+    private Rect getCrop(int width, int height) {
+        if (mRegionOfInterest == null) {
+            mRegionOfInterestPixels = null;
+            return null;
+        }
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+        boolean turned = (mRotation & 1) != 0;
+        int uprightWidth = turned ? height : width;
+        int uprightHeight = turned ? width : height;
+        Rect upright = new Rect(
+                Math.round(mRegionOfInterest.left * uprightWidth),
+                Math.round(mRegionOfInterest.top * uprightHeight),
+                Math.round(mRegionOfInterest.right * uprightWidth),
+                Math.round(mRegionOfInterest.bottom * uprightHeight));
+
+        Rect sensor = FrameCropper.toSensor(upright, mRotation, width, height);
+        if (sensor.isEmpty()) {
+            Log.w(TAG, "Region of interest too small for the preview, detecting on whole frames.");
+            mRegionOfInterestPixels = null;
+            return null;
         }
+        mRegionOfInterestPixels = FrameCropper.toUpright(sensor, mRotation, width, height);
+        return sensor;
+    }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+    /**
+     * Returns the size of a buffer for the camera preview callback.  The size of the buffer is
+     * based off of the camera preview size and the format of the camera image.
+     */
+    private static int getPreviewBufferSize(Size previewSize) {
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
+        long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
+        return (int) Math.ceil(sizeInBits / 8.0d) + 1;
     }
 
     //==============================================================================================
@@ -1064,155 +1178,72 @@ public class CameraSource {
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            mFrameProcessor.setNextFrame(data, camera);
+            mCameraFrames.onPreviewFrame(data, camera);
         }
     }
 
     /**
-     * This runnable controls access to the underlying receiver, calling it to process frames when
-     * available from the camera.  This is designed to run detection on frames as fast as possible
-     * (i.e., without unnecessary context switching or waiting on the next frame).
-     * <p/>
-     * While detection is running on a frame, new frames may be received from the camera.  As these
-     * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
-     * associated processing are done for the previous frame, detection on the mostly recently
-     * received frame will immediately start on the same thread.
+     * The camera preview as a frame source: the preview buffers of the pool are delivered to the
+     * pipeline as the camera fills them.
      */
-    private class FrameProcessingRunnable implements Runnable {
-        private Detector<?> mDetector;
-        private long mStartTimeMillis = SystemClock.elapsedRealtime();
-
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
+    private class CameraFrameSource implements FrameSource {
+        private final long mStartTimeMillis = SystemClock.elapsedRealtime();
+        private volatile FrameSource.Callback mCallback;
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
-        private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
-
-        FrameProcessingRunnable(Detector<?> detector) {
-            mDetector = detector;
-        }
-
-        /**
-         * Releases the underlying receiver.  This is only safe to do after the associated thread
-         * has completed, which is managed in camera source's release method above.
-         */
-        @SuppressLint("Assert")
-        void release() {
-            assert (mProcessingThread.getState() == State.TERMINATED);
-            mDetector.release();
-            mDetector = null;
+        @Override
+        public void start(FrameSource.Callback callback) {
+            mCallback = callback;
         }
 
-        /**
-         * Marks the runnable as active/not active.  Signals any blocked threads to continue.
-         */
-        void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
+        @Override
+        public void stop() {
+            mCallback = null;
+            // The buffers stay with the pool for the next start; only the camera lets go of them.
+            mBufferPool.detach();
+            if (mDebug) {
+                Log.d(TAG, "Frame buffers: peak " + mBufferPool.getPeakOccupancy() + " of "
+                        + mBufferPool.getDepth() + " held, camera starved "
+                        + mBufferPool.getStarvationCount() + " times, "
+                        + mBufferPool.getAllocationCount() + " allocated");
             }
         }
 
-        /**
-         * Sets the frame data received from the camera.  This adds the previous unused frame buffer
-         * (if present) back to the camera, and keeps a pending reference to the frame data for
-         * future use.
-         */
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
-                }
-
-                if (!mBytesToByteBuffer.containsKey(data)) {
-                    Log.d(TAG,
-                        "Skipping frame.  Could not find ByteBuffer associated with the image " +
-                        "data from the camera.");
-                    return;
-                }
-
-                // Timestamp and frame ID are maintained here, which will give downstream code some
-                // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+        void onPreviewFrame(byte[] data, Camera camera) {
+            FrameSource.Callback callback = mCallback;
+            if (callback == null) {
+                // The pipeline has not started yet; the buffer is still the camera's to fill.
+                camera.addCallbackBuffer(data);
+                return;
+            }
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                mLock.notifyAll();
+            ByteBuffer buffer = mBufferPool.take(data);
+            if (buffer == null) {
+                Log.d(TAG,
+                    "Skipping frame.  Could not find ByteBuffer associated with the image " +
+                    "data from the camera.");
+                return;
             }
+            callback.onFrame(buffer, SystemClock.elapsedRealtime() - mStartTimeMillis);
         }
 
-        /**
-         * As long as the processing thread is active, this executes detection on frames
-         * continuously.  The next pending frame is either immediately available or hasn't been
-         * received yet.  Once it is available, we transfer the frame info to local variables and
-         * run detection on that frame.  It immediately loops back for the next frame without
-         * pausing.
-         * <p/>
-         * If detection takes longer than the time in between new frames from the camera, this will
-         * mean that this loop will run without ever waiting on a frame, avoiding any context
-         * switching or frame acquisition time latency.
-         * <p/>
-         * If you find that this is using more CPU than you'd like, you should probably decrease the
-         * FPS setting above to allow for some idle time in between frames.
-         */
         @Override
-        public void run() {
-            Frame outputFrame;
-            ByteBuffer data;
-
-            while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
-                    }
-
-                    if (!mActive) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
-                    }
+        public void recycle(ByteBuffer data) {
+            mBufferPool.give(data);
+        }
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
-                }
+        @Override
+        public int getWidth() {
+            return mPreviewSize.getWidth();
+        }
 
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
+        @Override
+        public int getHeight() {
+            return mPreviewSize.getHeight();
+        }
 
-                try {
-                    mDetector.receiveFrame(outputFrame);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    mCamera.addCallbackBuffer(data.array());
-                }
-            }
+        @Override
+        public int getRotation() {
+            return mRotation;
         }
     }
 }
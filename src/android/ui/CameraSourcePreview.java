@@ -110,6 +110,8 @@ public class CameraSourcePreview extends ViewGroup {
                 } else {
                     mOverlay.setCameraInfo(max, min, mCameraSource.getCameraFacing());
                 }
+                mOverlay.setRegionOfInterest(mCameraSource.getRegionOfInterest());
+                mOverlay.setDetectionScale(mCameraSource.getDetectionScale());
 
                 mOverlay.clear();
             }
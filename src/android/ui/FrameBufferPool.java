@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.hardware.Camera;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Fixed set of preview buffers shared with the camera.
+ * <p/>
+ * Each buffer is a byte array wrapped once in a {@link ByteBuffer}.  It is either queued with the
+ * camera, waiting to be filled, or held by the frame processing pipeline until it is given back.
+ * The camera hands back the bare array, so slots are found by array identity in a small open
+ * addressing table, in constant time.
+ * <p/>
+ * The buffers outlive the camera: when the camera source restarts with the same preview size,
+ * the same arrays are queued again instead of allocating new ones.
+ * <p/>
+ * The pool counts how many buffers the pipeline holds, the most it ever held, and how often the
+ * camera was left without a buffer to fill, in which case it drops the next preview frames.
+ */
+@SuppressWarnings("deprecation")
+final class FrameBufferPool {
+    /** One buffer being detected on, one pending and two for the camera to fill. */
+    static final int DEFAULT_DEPTH = 4;
+    /** Fewest buffers that leave the camera one to fill while a frame is detected and one waits. */
+    static final int MIN_DEPTH = 3;
+
+    private final int mDepth;
+    private byte[][] mArrays;
+    private ByteBuffer[] mBuffers;
+    private final boolean[] mHeld;
+    // Slot of each array by identity hash, -1 for an empty bucket.
+    private final int[] mTable;
+    private final int mMask;
+    private int mBufferSize;
+
+    private Camera mCamera;
+    private int mOccupancy;
+    private int mPeakOccupancy;
+    private long mStarvationCount;
+    private long mAllocationCount;
+
+    FrameBufferPool(int depth) {
+        if (depth < MIN_DEPTH) {
+            throw new IllegalArgumentException("Invalid frame buffer depth: " + depth);
+        }
+        mDepth = depth;
+        mHeld = new boolean[depth];
+        int capacity = Integer.highestOneBit(4 * depth - 1);
+        mTable = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Queues every buffer with the camera, allocating them first if there are none yet or they
+     * were made for a different size.
+     */
+    synchronized void attach(Camera camera, int bufferSize) {
+        if (mArrays == null || mBufferSize != bufferSize) {
+            allocate(bufferSize);
+        }
+        mCamera = camera;
+        for (int i = 0; i < mDepth; i++) {
+            mHeld[i] = false;
+            camera.addCallbackBuffer(mArrays[i]);
+        }
+        mOccupancy = 0;
+    }
+
+    /**
+     * Forgets the camera, which no longer holds any of the buffers.  The buffers are kept for the
+     * next {@link #attach}.
+     */
+    synchronized void detach() {
+        mCamera = null;
+        for (int i = 0; i < mDepth; i++) {
+            mHeld[i] = false;
+        }
+        mOccupancy = 0;
+    }
+
+    /**
+     * Takes a buffer the camera has just filled.
+     *
+     * @return the buffer wrapping the array, or null if the array is not one of the pool's
+     */
+    synchronized ByteBuffer take(byte[] data) {
+        int slot = slotOf(data);
+        if (slot < 0 || mHeld[slot]) return null;
+
+        mHeld[slot] = true;
+        mOccupancy++;
+        if (mOccupancy > mPeakOccupancy) mPeakOccupancy = mOccupancy;
+        if (mOccupancy == mDepth) mStarvationCount++;
+        return mBuffers[slot];
+    }
+
+    /**
+     * Gives a buffer taken with {@link #take} back to the camera to fill again.
+     */
+    synchronized void give(ByteBuffer buffer) {
+        int slot = slotOf(buffer.array());
+        if (slot < 0 || !mHeld[slot]) return;
+
+        mHeld[slot] = false;
+        mOccupancy--;
+        if (mCamera != null) {
+            mCamera.addCallbackBuffer(mArrays[slot]);
+        }
+    }
+
+    int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Returns how many buffers the pipeline holds right now.
+     */
+    synchronized int getOccupancy() {
+        return mOccupancy;
+    }
+
+    /**
+     * Returns the most buffers the pipeline has held at once.
+     */
+    synchronized int getPeakOccupancy() {
+        return mPeakOccupancy;
+    }
+
+    /**
+     * Returns how many times the pipeline held every buffer, leaving the camera none to fill.
+     */
+    synchronized long getStarvationCount() {
+        return mStarvationCount;
+    }
+
+    /**
+     * Returns how many buffers were allocated, which only grows when the preview size changes.
+     */
+    synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    private void allocate(int bufferSize) {
+        mArrays = new byte[mDepth][];
+        mBuffers = new ByteBuffer[mDepth];
+        Arrays.fill(mTable, -1);
+        for (int i = 0; i < mDepth; i++) {
+            //
+            // NOTICE: This code only works when using play services v. 8.1 or higher.
+            //
+
+            // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+            // should guarantee that there will be an array to work with.
+            byte[] array = new byte[bufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(array);
+            if (!buffer.hasArray() || (buffer.array() != array)) {
+                // I don't think that this will ever happen.  But if it does, then we wouldn't be
+                // passing the preview content to the underlying detector later.
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+            mArrays[i] = array;
+            mBuffers[i] = buffer;
+
+            int bucket = System.identityHashCode(array) & mMask;
+            while (mTable[bucket] >= 0) {
+                bucket = (bucket + 1) & mMask;
+            }
+            mTable[bucket] = i;
+        }
+        mBufferSize = bufferSize;
+        mAllocationCount += mDepth;
+    }
+
+    private int slotOf(byte[] array) {
+        if (mArrays == null || array == null) return -1;
+
+        int bucket = System.identityHashCode(array) & mMask;
+        while (mTable[bucket] >= 0) {
+            int slot = mTable[bucket];
+            if (mArrays[slot] == array) return slot;
+            bucket = (bucket + 1) & mMask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Geometry and copying for cropping NV21 frames to a region of interest.
+ * <p/>
+ * The region is chosen on screen, in upright frame coordinates, while the camera delivers frames
+ * as the sensor sees them: turning a sensor frame {@code rotation} quarter turns clockwise makes
+ * it upright (the rotation constants of {@link com.google.android.gms.vision.Frame}), so with a
+ * rotation of 1 the top edge of the sensor frame is the right edge upright.  The region is
+ * therefore mapped to sensor coordinates for cropping, and aligned to even pixels there since
+ * each chroma sample of NV21 covers two by two pixels.  The detector reports boxes in upright
+ * coordinates of the crop, which the upright position of the aligned crop maps back to the whole
+ * frame.
+ */
+final class FrameCropper {
+
+    private FrameCropper() {
+    }
+
+    /**
+     * Maps a rectangle of the upright frame to the sensor frame, aligned to even pixels and
+     * clipped to the frame.
+     *
+     * @param upright the rectangle in upright coordinates
+     * @param rotation quarter turns clockwise that make the sensor frame upright, as in the
+     *                 class description
+     * @param width width of the sensor frame
+     * @param height height of the sensor frame
+     * @return the rectangle in sensor coordinates, empty if nothing of it is left
+     */
+    static Rect toSensor(Rect upright, int rotation, int width, int height) {
+        Rect sensor = new Rect();
+        switch (rotation & 3) {
+            case 1:
+                sensor.set(upright.top, height - upright.right, upright.bottom, height - upright.left);
+                break;
+            case 2:
+                sensor.set(width - upright.right, height - upright.bottom, width - upright.left, height - upright.top);
+                break;
+            case 3:
+                sensor.set(width - upright.bottom, upright.left, width - upright.top, upright.right);
+                break;
+            default:
+                sensor.set(upright);
+                break;
+        }
+
+        sensor.left = Math.max(0, sensor.left) & ~1;
+        sensor.top = Math.max(0, sensor.top) & ~1;
+        sensor.right = Math.min(width, sensor.right) & ~1;
+        sensor.bottom = Math.min(height, sensor.bottom) & ~1;
+        if (sensor.right <= sensor.left || sensor.bottom <= sensor.top) {
+            sensor.setEmpty();
+        }
+        return sensor;
+    }
+
+    /**
+     * Maps a rectangle of the sensor frame back to the upright frame; the inverse of
+     * {@link #toSensor} for an already aligned rectangle.
+     */
+    static Rect toUpright(Rect sensor, int rotation, int width, int height) {
+        Rect upright = new Rect();
+        switch (rotation & 3) {
+            case 1:
+                upright.set(height - sensor.bottom, sensor.left, height - sensor.top, sensor.right);
+                break;
+            case 2:
+                upright.set(width - sensor.right, height - sensor.bottom, width - sensor.left, height - sensor.top);
+                break;
+            case 3:
+                upright.set(sensor.top, width - sensor.right, sensor.bottom, width - sensor.left);
+                break;
+            default:
+                upright.set(sensor);
+                break;
+        }
+        return upright;
+    }
+
+    /**
+     * Copies the luma rows and the interleaved chroma rows of the region into a tightly packed
+     * NV21 frame of the region's size.
+     *
+     * @param crop the region, in sensor coordinates aligned to even pixels
+     * @param out array of at least crop width * crop height * 3 / 2 bytes
+     */
+    static void crop(ByteBuffer frame, int width, int height, Rect crop, byte[] out) {
+        byte[] in = frame.array();
+        int offset = frame.arrayOffset();
+        int cropWidth = crop.width();
+        int cropHeight = crop.height();
+
+        int to = 0;
+        for (int y = crop.top; y < crop.bottom; y++) {
+            System.arraycopy(in, offset + y * width + crop.left, out, to, cropWidth);
+            to += cropWidth;
+        }
+
+        int chroma = offset + width * height;
+        for (int y = crop.top / 2; y < cropHeight / 2 + crop.top / 2; y++) {
+            System.arraycopy(in, chroma + y * width + crop.left, out, to, cropWidth);
+            to += cropWidth;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.google.android.gms.vision.Detector;
+
+import java.io.IOException;
+
+/**
+ * Runs the frames of a {@link FrameSource} through a detector on a processing thread of its own.
+ * <p/>
+ * {@link CameraSource} drives its camera through a pipeline; a pipeline around a
+ * {@link ReplayFrameSource} runs recorded frames through the same detector and processors
+ * without a camera, for load tests and profiling.
+ */
+public final class FramePipeline {
+    private static final String TAG = "OpenCameraSource";
+
+    private final FrameSource mSource;
+    private final FrameProcessingRunnable mFrameProcessor;
+    private Thread mProcessingThread;
+    // Whether the detection rate is logged when the pipeline stops.
+    private boolean mDebug;
+
+    public FramePipeline(FrameSource source, Detector<?> detector) {
+        mSource = source;
+        mFrameProcessor = new FrameProcessingRunnable(source, detector);
+    }
+
+    /**
+     * Sets the region of the frames to detect on, in sensor coordinates, or null to detect on
+     * whole frames.  Takes effect from the next frame.
+     *
+     * @see FrameCropper#toSensor
+     */
+    public void setCrop(Rect crop) {
+        mFrameProcessor.setCrop(crop);
+    }
+
+    /**
+     * Sets the whole factor the frames, or their crop, are shrunk by before detection, 1 to
+     * detect at the source's resolution.  Takes effect from the next frame.
+     */
+    public void setDownscale(int factor) {
+        mFrameProcessor.setDownscale(factor);
+    }
+
+    /**
+     * Paces detection to the measured speed of the detector, between the given frame rates;
+     * frames the source delivers faster are skipped.  Without bounds every frame there is time
+     * for is detected.
+     *
+     * @see FrameRateGovernor
+     */
+    public void setFrameRateBounds(float minFps, float maxFps) {
+        mFrameProcessor.setGovernor(new FrameRateGovernor(minFps, maxFps));
+    }
+
+    /**
+     * Logs the rate frames were detected at each time the pipeline stops.  Default: false.
+     */
+    public synchronized void setDebug(boolean debug) {
+        mDebug = debug;
+    }
+
+    /**
+     * Starts the processing thread, then the source.  Does nothing if already started.
+     */
+    public synchronized void start() throws IOException {
+        if (mProcessingThread != null) {
+            return;
+        }
+
+        mProcessingThread = new Thread(mFrameProcessor);
+        mFrameProcessor.setActive(true);
+        mProcessingThread.start();
+        try {
+            mSource.start(mFrameProcessor);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the processing thread, after the frame being detected if any, then the source.  The
+     * pipeline may be started again.
+     */
+    public synchronized void stop() {
+        mFrameProcessor.setActive(false);
+        if (mProcessingThread != null) {
+            try {
+                // Wait for the thread to complete to ensure that we can't have multiple threads
+                // executing at the same time (i.e., which would happen if we called start too
+                // quickly after stop).
+                mProcessingThread.join();
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Frame processing thread interrupted on release.");
+            }
+            mProcessingThread = null;
+        }
+        mSource.stop();
+        mFrameProcessor.dropPendingFrame();
+        if (mDebug) {
+            mFrameProcessor.logFrameRate();
+        }
+    }
+
+    /**
+     * Stops the pipeline and releases the detector.
+     */
+    public synchronized void release() {
+        stop();
+        mFrameProcessor.release();
+    }
+}
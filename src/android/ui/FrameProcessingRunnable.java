@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.util.Log;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This runnable controls access to the underlying receiver, calling it to process frames when
+ * available from the frame source.  This is designed to run detection on frames as fast as
+ * possible (i.e., without unnecessary context switching or waiting on the next frame).
+ * <p/>
+ * While detection is running on a frame, new frames may be received from the source.  As these
+ * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
+ * associated processing are done for the previous frame, detection on the mostly recently
+ * received frame will immediately start on the same thread.
+ * <p/>
+ * With a crop set, only that region of each frame is detected on, and with a downscale factor
+ * the frame is shrunk by it first.  Either way the frame detected on is written into a buffer of
+ * the runnable's own, which lets the source have its buffer back before detection starts.
+ * <p/>
+ * With a {@link FrameRateGovernor} set, frames that arrive before the governor wants the next
+ * one are given straight back to the source, and the time taken by each detection is reported
+ * to it.
+ */
+final class FrameProcessingRunnable implements Runnable, FrameSource.Callback {
+    private static final String TAG = "OpenCameraSource";
+
+    private final FrameSource mSource;
+    private Detector<?> mDetector;
+
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private boolean mActive = true;
+
+    // These pending variables hold the state associated with the new frame awaiting processing.
+    private long mPendingTimeMillis;
+    private int mPendingFrameId = 0;
+    private ByteBuffer mPendingFrameData;
+    // Region of the frames to detect on, in sensor coordinates, or null for whole frames.
+    private Rect mCrop;
+    // Factor the frames are shrunk by before detection.
+    private int mDownscale = 1;
+    // Paces the frames passed to the detector, or null to detect every frame there is time for.
+    private FrameRateGovernor mGovernor;
+
+    // Owned by the processing thread: the frame detected on, reused while its size is unchanged,
+    // and the whole frame as a region when there is no crop.
+    private ByteBuffer mDetectionBuffer;
+    private final Rect mWholeFrame = new Rect();
+
+    FrameProcessingRunnable(FrameSource source, Detector<?> detector) {
+        mSource = source;
+        mDetector = detector;
+    }
+
+    /**
+     * Releases the underlying receiver.  This is only safe to do after the associated thread
+     * has completed, which is managed by {@link FramePipeline#release()}.
+     */
+    void release() {
+        mDetector.release();
+        mDetector = null;
+    }
+
+    /**
+     * Marks the runnable as active/not active.  Signals any blocked threads to continue.
+     */
+    void setActive(boolean active) {
+        synchronized (mLock) {
+            mActive = active;
+            if (active && mGovernor != null) {
+                mGovernor.restart();
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sets the region of the frames to detect on, in sensor coordinates aligned to even pixels,
+     * or null to detect on whole frames.
+     *
+     * @see FrameCropper#toSensor
+     */
+    void setCrop(Rect crop) {
+        synchronized (mLock) {
+            mCrop = crop == null || crop.isEmpty() ? null : crop;
+        }
+    }
+
+    /**
+     * Sets the whole factor the frames, or their crop, are shrunk by before detection.
+     *
+     * @see FrameScaler
+     */
+    void setDownscale(int factor) {
+        synchronized (mLock) {
+            mDownscale = Math.max(1, factor);
+        }
+    }
+
+    /**
+     * Sets the governor pacing the frames passed to the detector, or null to detect every frame
+     * there is time for.
+     */
+    void setGovernor(FrameRateGovernor governor) {
+        synchronized (mLock) {
+            mGovernor = governor;
+        }
+    }
+
+    /**
+     * Logs how the governor, if any, has paced the frames so far.
+     */
+    void logFrameRate() {
+        synchronized (mLock) {
+            if (mGovernor == null) return;
+            Log.d(TAG, "Detecting at " + Math.round(mGovernor.getFps() * 10) / 10.0f + " fps, "
+                    + Math.round(mGovernor.getLatencyMillis()) + " ms per frame, skipped "
+                    + mGovernor.getSkippedCount() + " frames, dropped "
+                    + mGovernor.getDroppedCount());
+        }
+    }
+
+    /**
+     * Forgets the pending frame without giving its buffer back, once the source is stopped.
+     */
+    void dropPendingFrame() {
+        synchronized (mLock) {
+            mPendingFrameData = null;
+        }
+    }
+
+    /**
+     * Sets the frame data received from the source.  This gives the previous unused frame buffer
+     * (if present) back to the source, and keeps a pending reference to the frame data for
+     * future use.  Frames the governor skips are given back to the source right away.
+     */
+    @Override
+    public void onFrame(ByteBuffer data, long timestampMillis) {
+        synchronized (mLock) {
+            if (mGovernor != null) {
+                if (!mGovernor.accept(timestampMillis)) {
+                    mSource.recycle(data);
+                    return;
+                }
+                mGovernor.onPending(mPendingFrameData != null);
+            }
+
+            if (mPendingFrameData != null) {
+                mSource.recycle(mPendingFrameData);
+                mPendingFrameData = null;
+            }
+
+            // Timestamp and frame ID are maintained here, which will give downstream code some
+            // idea of the timing of frames received and when frames were dropped along the way.
+            mPendingTimeMillis = timestampMillis;
+            mPendingFrameId++;
+            mPendingFrameData = data;
+
+            // Notify the processor thread if it is waiting on the next frame (see below).
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * As long as the processing thread is active, this executes detection on frames
+     * continuously.  The next pending frame is either immediately available or hasn't been
+     * received yet.  Once it is available, we transfer the frame info to local variables and
+     * run detection on that frame.  It immediately loops back for the next frame without
+     * pausing.
+     * <p/>
+     * If detection takes longer than the time in between new frames from the source, this will
+     * mean that this loop will run without ever waiting on a frame, avoiding any context
+     * switching or frame acquisition time latency.
+     * <p/>
+     * If you find that this is using more CPU than you'd like, set a governor, or decrease the
+     * FPS setting of the camera source, to allow for some idle time in between frames.
+     */
+    @Override
+    public void run() {
+        Frame outputFrame;
+        ByteBuffer data;
+        Rect crop;
+        int downscale;
+        int frameId;
+        long timestampMillis;
+
+        while (true) {
+            synchronized (mLock) {
+                while (mActive && (mPendingFrameData == null)) {
+                    try {
+                        // Wait for the next frame to be received from the source, since we
+                        // don't have it yet.
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, "Frame processing loop terminated.", e);
+                        return;
+                    }
+                }
+
+                if (!mActive) {
+                    // Exit the loop once this pipeline is stopped or released.  We check this
+                    // here, immediately after the wait() above, to handle the case where
+                    // setActive(false) had been called, triggering the termination of this
+                    // loop.
+                    return;
+                }
+
+                // Hold onto the frame data locally, so that we can use this for detection
+                // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
+                // recycled back to the source before we are done using that data.
+                data = mPendingFrameData;
+                mPendingFrameData = null;
+                crop = mCrop;
+                downscale = mDownscale;
+                frameId = mPendingFrameId;
+                timestampMillis = mPendingTimeMillis;
+            }
+
+            long startNanos = System.nanoTime();
+
+            int width = mSource.getWidth();
+            int height = mSource.getHeight();
+            ByteBuffer detected = data;
+            if (crop != null || downscale > 1) {
+                // A copy is detected on instead, so the source can fill its buffer again.
+                Rect region = crop;
+                if (region == null) {
+                    mWholeFrame.set(0, 0, width, height);
+                    region = mWholeFrame;
+                }
+                int detectedWidth = FrameScaler.scaledWidth(region, downscale);
+                int detectedHeight = FrameScaler.scaledHeight(region, downscale);
+                int size = detectedWidth * detectedHeight * 3 / 2;
+                if (mDetectionBuffer == null || mDetectionBuffer.capacity() != size) {
+                    mDetectionBuffer = ByteBuffer.wrap(new byte[size]);
+                }
+                if (downscale > 1) {
+                    FrameScaler.downscale(data, width, height, region, downscale, mDetectionBuffer.array());
+                } else {
+                    FrameCropper.crop(data, width, height, region, mDetectionBuffer.array());
+                }
+                mSource.recycle(data);
+                data = null;
+                detected = mDetectionBuffer;
+                width = detectedWidth;
+                height = detectedHeight;
+            }
+
+            outputFrame = new Frame.Builder()
+                    .setImageData(detected, width, height, ImageFormat.NV21)
+                    .setId(frameId)
+                    .setTimestampMillis(timestampMillis)
+                    .setRotation(mSource.getRotation())
+                    .build();
+
+            // The code below needs to run outside of synchronization, because this will allow
+            // the source to add pending frame(s) while we are running detection on the current
+            // frame.
+
+            try {
+                mDetector.receiveFrame(outputFrame);
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from receiver.", t);
+            } finally {
+                if (data != null) {
+                    mSource.recycle(data);
+                }
+            }
+
+            long latencyMillis = (System.nanoTime() - startNanos) / 1000000;
+            synchronized (mLock) {
+                if (mGovernor != null) {
+                    mGovernor.onDetected(latencyMillis);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+/**
+ * Paces the frames passed to the detector to what it can keep up with.
+ * <p/>
+ * The governor measures how long the detector takes on a frame and how often a frame waiting
+ * for the detector is replaced by a newer one before detection starts on it (a drop).  From
+ * these it works out the interval between detected frames that keeps the processing thread busy
+ * {@link #TARGET_UTILIZATION} of the time, within the given frame rate bounds, and skips the
+ * frames that arrive before the next one is due.  A skipped frame goes straight back to the
+ * source instead of waking the processing thread; slow devices stop piling up frames, and fast
+ * ones detect more often than a fixed camera rate would allow.
+ * <p/>
+ * Not thread safe; the frame processing runnable calls it under its lock.
+ */
+final class FrameRateGovernor {
+
+    /** Share of the time the processing thread is meant to spend detecting. */
+    static final float TARGET_UTILIZATION = 0.75f;
+
+    // Weight of the newest sample in the moving averages of latency and drop rate.
+    private static final float SMOOTHING = 0.2f;
+
+    private final float mMinIntervalMillis;
+    private final float mMaxIntervalMillis;
+
+    private float mLatencyMillis;
+    private float mDropRate;
+    private float mIntervalMillis;
+    private long mNextDueMillis;
+    private boolean mStarted;
+
+    private long mDetectedCount;
+    private long mSkippedCount;
+    private long mDroppedCount;
+
+    /**
+     * Creates a governor that detects at least minFps and at most maxFps frames per second, as
+     * far as the source and the detector allow.
+     */
+    FrameRateGovernor(float minFps, float maxFps) {
+        if (minFps <= 0 || maxFps < minFps) {
+            throw new IllegalArgumentException("Invalid fps range: " + minFps + " - " + maxFps);
+        }
+        mMinIntervalMillis = 1000.0f / maxFps;
+        mMaxIntervalMillis = 1000.0f / minFps;
+        mIntervalMillis = mMinIntervalMillis;
+    }
+
+    /**
+     * Starts pacing anew from the next frame, for a source whose timestamps may have restarted.
+     * What was learned about the detector is kept.
+     */
+    void restart() {
+        mStarted = false;
+    }
+
+    /**
+     * Returns true if the frame with the given timestamp is due for detection, false if it is to
+     * be skipped.
+     */
+    boolean accept(long timestampMillis) {
+        if (mStarted && timestampMillis < mNextDueMillis) {
+            mSkippedCount++;
+            return false;
+        }
+
+        // Late frames keep the cadence, unless a whole interval was missed.
+        long interval = (long) mIntervalMillis;
+        if (mStarted && timestampMillis - mNextDueMillis < interval) {
+            mNextDueMillis += interval;
+        } else {
+            mNextDueMillis = timestampMillis + interval;
+        }
+        mStarted = true;
+        return true;
+    }
+
+    /**
+     * Records whether an accepted frame replaced one still waiting for the detector.
+     */
+    void onPending(boolean replaced) {
+        if (replaced) mDroppedCount++;
+        mDropRate += SMOOTHING * ((replaced ? 1 : 0) - mDropRate);
+    }
+
+    /**
+     * Records the time the detector took on a frame and works out the next interval.
+     */
+    void onDetected(long latencyMillis) {
+        mLatencyMillis = mDetectedCount == 0
+                ? latencyMillis
+                : mLatencyMillis + SMOOTHING * (latencyMillis - mLatencyMillis);
+        mDetectedCount++;
+
+        // Drops mean frames are still accepted faster than they are detected; back off further.
+        float interval = mLatencyMillis / TARGET_UTILIZATION * (1 + mDropRate);
+        mIntervalMillis = Math.max(mMinIntervalMillis, Math.min(mMaxIntervalMillis, interval));
+    }
+
+    /**
+     * Returns the rate frames are currently let through at, in frames per second.
+     */
+    float getFps() {
+        return 1000.0f / mIntervalMillis;
+    }
+
+    /**
+     * Returns the moving average of the detector's latency, in milliseconds.
+     */
+    float getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
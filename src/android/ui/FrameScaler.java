@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.graphics.Rect;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shrinks NV21 frames by a whole factor for detection, averaging each factor by factor block of
+ * pixels (a box filter).
+ * <p/>
+ * Text stays legible to the recognizer well below the preview resolution, and its cost grows
+ * with the pixel count.  Averaging rather than skipping pixels keeps thin strokes from breaking
+ * up.  A whole factor keeps the filter to integer sums, without allocating and in a single pass
+ * over the region.
+ */
+final class FrameScaler {
+
+    private FrameScaler() {
+    }
+
+    /**
+     * Returns the width of the region shrunk by the factor, kept even for NV21.
+     */
+    static int scaledWidth(Rect region, int factor) {
+        return (region.width() / factor) & ~1;
+    }
+
+    /**
+     * Returns the height of the region shrunk by the factor, kept even for NV21.
+     */
+    static int scaledHeight(Rect region, int factor) {
+        return (region.height() / factor) & ~1;
+    }
+
+    /**
+     * Returns the smallest factor that brings the longer side of the region down to at most the
+     * given size, or 1 if it already fits or no size is given.
+     */
+    static int factorFor(Rect region, int longSide) {
+        if (longSide <= 0) return 1;
+        int side = Math.max(region.width(), region.height());
+        return Math.max(1, (side + longSide - 1) / longSide);
+    }
+
+    /**
+     * Writes the region of the frame, shrunk by the factor, as a tightly packed NV21 frame of
+     * {@link #scaledWidth} by {@link #scaledHeight} pixels.
+     *
+     * @param region the region, in frame coordinates aligned to even pixels
+     * @param out array of at least scaled width * scaled height * 3 / 2 bytes
+     */
+    static void downscale(ByteBuffer frame, int width, int height, Rect region, int factor, byte[] out) {
+        byte[] in = frame.array();
+        int offset = frame.arrayOffset();
+        int outWidth = scaledWidth(region, factor);
+        int outHeight = scaledHeight(region, factor);
+        int area = factor * factor;
+        int half = area / 2;
+
+        int to = 0;
+        for (int y = 0; y < outHeight; y++) {
+            int row = offset + (region.top + y * factor) * width + region.left;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                int block = row + x * factor;
+                for (int dy = 0; dy < factor; dy++, block += width) {
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += in[block + dx] & 0xff;
+                    }
+                }
+                out[to++] = (byte) ((sum + half) / area);
+            }
+        }
+
+        // Chroma samples come in V,U pairs, one pair per two by two pixels.
+        int chroma = offset + width * height;
+        for (int y = 0; y < outHeight / 2; y++) {
+            int row = chroma + (region.top / 2 + y * factor) * width + region.left;
+            for (int x = 0; x < outWidth / 2; x++) {
+                int v = 0, u = 0;
+                int block = row + x * factor * 2;
+                for (int dy = 0; dy < factor; dy++, block += width) {
+                    for (int dx = 0; dx < 2 * factor; dx += 2) {
+                        v += in[block + dx] & 0xff;
+                        u += in[block + dx + 1] & 0xff;
+                    }
+                }
+                out[to++] = (byte) ((v + half) / area);
+                out[to++] = (byte) ((u + half) / area);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Produces NV21 frames for a {@link FramePipeline} to run through a detector.
+ * <p/>
+ * The camera preview is one source; {@link ReplayFrameSource} plays back recorded frames so the
+ * pipeline can be exercised without a camera.  Frames are delivered in buffers owned by the
+ * source, which the pipeline gives back with {@link #recycle(ByteBuffer)} once it is done with
+ * them.
+ */
+public interface FrameSource {
+
+    /**
+     * Receives the frames of a source, on a thread of the source's choosing.
+     */
+    interface Callback {
+        /**
+         * Called with each new frame.  The buffer belongs to the callback until it is passed to
+         * {@link FrameSource#recycle(ByteBuffer)}.
+         *
+         * @param data the frame, in NV21 format, in an array backed buffer
+         * @param timestampMillis the time of the frame, relative to the start of the source
+         */
+        void onFrame(ByteBuffer data, long timestampMillis);
+    }
+
+    /**
+     * Starts delivering frames to the callback.
+     */
+    void start(Callback callback) throws IOException;
+
+    /**
+     * Stops delivering frames.  Buffers not given back yet are considered given back.
+     */
+    void stop();
+
+    /**
+     * Gives a delivered buffer back to the source to fill again.
+     */
+    void recycle(ByteBuffer data);
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Returns the rotation of the frames, as one of the rotation constants of
+     * {@link com.google.android.gms.vision.Frame}.
+     */
+    int getRotation();
+}
@@ -19,16 +19,16 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.util.AttributeSet;
 import android.view.View;
 
-import com.creative.informatics.camera.OcrCaptureActivity;
 import com.creative.informatics.camera.OcrGraphic;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A view which renders a series of custom graphics to be overlaid on top of an associated preview
@@ -51,6 +51,7 @@ import java.util.Set;
 public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
 
     private static final int RESULT_TEXT_COLOR = Color.WHITE;
+    private static final int REGION_COLOR = Color.WHITE;
 
     private final Object mLock = new Object();
     private int mPreviewWidth;
@@ -58,8 +59,18 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     private int mPreviewHeight;
     private float mHeightScaleFactor = 1.0f;
     private int mFacing = CameraSource.CAMERA_FACING_BACK;
-    private Set<T> mGraphics = new HashSet<T>();
+    private final List<T> mGraphics = new ArrayList<T>();
+    // Region the detector sees, in preview pixels, or null for the whole preview.  Graphics are
+    // positioned relative to it.
+    private Rect mRegionOfInterest;
+    private int mRegionLeft;
+    private int mRegionTop;
+    // Preview pixels per pixel of the frames the detector sees.
+    private int mDetectionScale = 1;
     private static Paint sTextPaint =  null;
+    private static Paint sRegionPaint = null;
+    // Lines of text drawn at the top left, swapped whole and never changed once set.
+    private volatile String[] mStatusLines = new String[0];
     /**
      * Base class for a custom graphics object to be rendered within the graphic overlay.  Subclass
      * this and implement the {@link Graphic#draw(Canvas)} method to define the
@@ -96,14 +107,14 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * scale.
          */
         public float scaleX(float horizontal) {
-            return horizontal * mOverlay.mWidthScaleFactor;
+            return horizontal * mOverlay.mDetectionScale * mOverlay.mWidthScaleFactor;
         }
 
         /**
          * Adjusts a vertical value of the supplied value from the preview scale to the view scale.
          */
         public float scaleY(float vertical) {
-            return vertical * mOverlay.mHeightScaleFactor;
+            return vertical * mOverlay.mDetectionScale * mOverlay.mHeightScaleFactor;
         }
 
         /**
@@ -111,10 +122,11 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * system.
          */
         public float translateX(float x) {
+            float view = scaleX(x) + mOverlay.mRegionLeft * mOverlay.mWidthScaleFactor;
             if (mOverlay.mFacing == CameraSource.CAMERA_FACING_FRONT) {
-                return mOverlay.getWidth() - scaleX(x);
+                return mOverlay.getWidth() - view;
             } else {
-                return scaleX(x);
+                return view;
             }
         }
 
@@ -123,7 +135,7 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
          * system.
          */
         public float translateY(float y) {
-            return scaleY(y);
+            return scaleY(y) + mOverlay.mRegionTop * mOverlay.mHeightScaleFactor;
         }
 
         public void postInvalidate() {
@@ -140,6 +152,12 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
             sTextPaint.setTextSize(40.0f);
             sTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.ITALIC));
         }
+        if (sRegionPaint == null) {
+            sRegionPaint = new Paint();
+            sRegionPaint.setColor(REGION_COLOR);
+            sRegionPaint.setStyle(Paint.Style.STROKE);
+            sRegionPaint.setStrokeWidth(4.0f);
+        }
     }
 
     /**
@@ -163,15 +181,29 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
     }
 
     /**
-     * Adds a graphic to the overlay.
+     * Replaces all graphics of the overlay with the first {@code count} of the supplied list in a
+     * single step, so no frame is drawn empty in between.  The overlay keeps its own list; once
+     * this returns, the caller may reuse the graphics that were previously shown.
      */
-    public void addAll(Set<T> graphics) {
+    public void setAll(List<T> graphics, int count) {
         synchronized (mLock) {
-            mGraphics.addAll(graphics);
+            mGraphics.clear();
+            for (int i = 0; i < count; i++) {
+                mGraphics.add(graphics.get(i));
+            }
         }
         postInvalidate();
     }
 
+    /**
+     * Replaces the lines of text drawn over the graphics.  The array must not be changed after
+     * it is handed over.
+     */
+    public void setStatusLines(String[] lines) {
+        mStatusLines = lines;
+        postInvalidate();
+    }
+
     /**
      * Removes a graphic from the overlay.
      */
@@ -214,6 +246,31 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
         postInvalidate();
     }
 
+    /**
+     * Sets the region of the preview the detector sees, in preview pixels, or null for the whole
+     * preview.  The region is outlined as a guide, and graphics are positioned relative to it
+     * since the detector reports boxes relative to it.
+     */
+    public void setRegionOfInterest(Rect region) {
+        synchronized (mLock) {
+            mRegionOfInterest = region;
+            mRegionLeft = region == null ? 0 : region.left;
+            mRegionTop = region == null ? 0 : region.top;
+        }
+        postInvalidate();
+    }
+
+    /**
+     * Sets how many preview pixels a pixel of the frames the detector sees covers, so graphics
+     * of detected items are scaled back up to the preview.
+     */
+    public void setDetectionScale(int scale) {
+        synchronized (mLock) {
+            mDetectionScale = Math.max(1, scale);
+        }
+        postInvalidate();
+    }
+
     /**
      * Draws the overlay with its associated graphic objects.
      */
@@ -228,18 +285,29 @@ public class GraphicOverlay<T extends GraphicOverlay.Graphic> extends View {
                 mHeightScaleFactor = (float) canvas.getHeight() / (float) mPreviewHeight;
             }
 
-            for (Graphic graphic : mGraphics) {
-                graphic.draw(canvas);
+            if (mRegionOfInterest != null) {
+                float left = mRegionOfInterest.left * mWidthScaleFactor;
+                float right = mRegionOfInterest.right * mWidthScaleFactor;
+                if (mFacing == CameraSource.CAMERA_FACING_FRONT) {
+                    float mirrored = getWidth() - right;
+                    right = getWidth() - left;
+                    left = mirrored;
+                }
+                canvas.drawRect(left, mRegionOfInterest.top * mHeightScaleFactor,
+                        right, mRegionOfInterest.bottom * mHeightScaleFactor, sRegionPaint);
             }
 
-            float x = 10, y = 50;
-            for(int i=0; i<OcrCaptureActivity.ocrDict.size(); i++){
-                OcrCaptureActivity.OCRDictionary dict = OcrCaptureActivity.ocrDict.get(i);
-                String text = dict.getDisplayString();
-                y += 55;
-                canvas.drawText(text, x, y, sTextPaint);
+            for (int i = 0; i < mGraphics.size(); i++) {
+                mGraphics.get(i).draw(canvas);
             }
         }
+
+        String[] lines = mStatusLines;
+        float x = 10, y = 50;
+        for (String line : lines) {
+            y += 55;
+            canvas.drawText(line, x, y, sTextPaint);
+        }
     }
 
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.ui;
+
+import android.util.Log;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Plays back NV21 frames recorded to a file, as a {@link FrameSource} for a
+ * {@link FramePipeline}.
+ * <p/>
+ * The file is memory-mapped, so frames are read straight from the page cache into the buffers
+ * handed to the pipeline.  Frames are delivered either at the pace they were recorded at, where
+ * frames arriving while the pipeline holds every buffer are dropped as the camera would, or as
+ * fast as the pipeline takes them, to measure its throughput.
+ * <p/>
+ * The buffers are allocated once and kept across restarts.  The source remembers which of them
+ * the pipeline holds, and takes those back when it stops, as {@link FrameBufferPool} does for
+ * the camera; a buffer given back after that, or one that is not the source's, is ignored.
+ * <p/>
+ * The file starts with a header of four big-endian ints: {@link #MAGIC}, the width, the height
+ * and the rotation of the frames.  Each frame follows as a big-endian long timestamp in
+ * milliseconds and width * height * 3 / 2 bytes of NV21 data.  {@link #writeHeader} and
+ * {@link #writeFrame} write that format.
+ */
+public final class ReplayFrameSource implements FrameSource {
+    private static final String TAG = "ReplayFrameSource";
+
+    /** First int of a recording, "NV21" in ASCII. */
+    public static final int MAGIC = 0x4e563231;
+
+    private static final int HEADER_SIZE = 16;
+    // One frame being detected, one pending and one being filled.
+    private static final int BUFFER_COUNT = 3;
+
+    private final MappedByteBuffer mFile;
+    private final boolean mRealTime;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRotation;
+    private final int mFrameSize;
+    private final int mFrameCount;
+
+    private final ByteBuffer[] mBuffers = new ByteBuffer[BUFFER_COUNT];
+    private final BlockingQueue<ByteBuffer> mFree = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+    // Guards mHeld, which tells the buffers the pipeline holds.
+    private final Object mBufferLock = new Object();
+    private final boolean[] mHeld = new boolean[BUFFER_COUNT];
+    private Thread mReplayThread;
+    private volatile long mDeliveredCount;
+    private volatile long mDroppedCount;
+
+    /**
+     * Maps a recording.
+     *
+     * @param realTime whether to deliver the frames at the pace they were recorded at rather
+     *                 than as fast as the pipeline takes them
+     * @throws IOException if the file cannot be read, is larger than 2 GB, or is not a recording
+     */
+    public ReplayFrameSource(File file, boolean realTime) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Recording too large to map: " + file);
+            }
+            mFile = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+
+        if (mFile.capacity() < HEADER_SIZE || mFile.getInt(0) != MAGIC) {
+            throw new IOException("Not a frame recording: " + file);
+        }
+        mWidth = mFile.getInt(4);
+        mHeight = mFile.getInt(8);
+        mRotation = mFile.getInt(12);
+        if (mWidth <= 0 || mHeight <= 0) {
+            throw new IOException("Invalid frame size in recording: " + mWidth + "x" + mHeight);
+        }
+        mFrameSize = mWidth * mHeight * 3 / 2;
+        mFrameCount = (mFile.capacity() - HEADER_SIZE) / (8 + mFrameSize);
+        mRealTime = realTime;
+
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mBuffers[i] = ByteBuffer.wrap(new byte[mFrameSize]);
+            mFree.add(mBuffers[i]);
+        }
+    }
+
+    @Override
+    public synchronized void start(final FrameSource.Callback callback) {
+        if (mReplayThread != null) {
+            return;
+        }
+        mReplayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay(callback);
+            }
+        }, "FrameReplay");
+        mReplayThread.start();
+    }
+
+    /**
+     * Stops the playback.  A later {@link #start} plays the recording from the beginning.
+     */
+    @Override
+    public synchronized void stop() {
+        if (mReplayThread == null) {
+            return;
+        }
+        mReplayThread.interrupt();
+        try {
+            mReplayThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mReplayThread = null;
+
+        synchronized (mBufferLock) {
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                if (mHeld[i]) {
+                    mHeld[i] = false;
+                    mFree.offer(mBuffers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the playback to deliver its last frame.
+     */
+    public void awaitEnd() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = mReplayThread;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void recycle(ByteBuffer data) {
+        synchronized (mBufferLock) {
+            int slot = slotOf(data);
+            if (slot < 0 || !mHeld[slot]) return;
+
+            mHeld[slot] = false;
+            mFree.offer(data);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Returns how many frames were handed to the pipeline.
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * Returns how many frames were skipped in real time playback because the pipeline held
+     * every buffer.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    private void replay(FrameSource.Callback callback) {
+        long startNanos = System.nanoTime();
+        long firstTimestamp = mFrameCount > 0 ? mFile.getLong(HEADER_SIZE) : 0;
+
+        try {
+            for (int i = 0; i < mFrameCount; i++) {
+                int offset = HEADER_SIZE + i * (8 + mFrameSize);
+                long timestamp = mFile.getLong(offset);
+
+                ByteBuffer buffer;
+                if (mRealTime) {
+                    long dueNanos = startNanos + (timestamp - firstTimestamp) * 1000000L;
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+                    }
+                    buffer = mFree.poll();
+                    if (buffer == null) {
+                        mDroppedCount++;
+                        continue;
+                    }
+                } else {
+                    buffer = mFree.take();
+                }
+
+                ByteBuffer frame = mFile.duplicate();
+                frame.position(offset + 8);
+                frame.get(buffer.array(), 0, mFrameSize);
+                buffer.clear();
+                synchronized (mBufferLock) {
+                    mHeld[slotOf(buffer)] = true;
+                }
+                mDeliveredCount++;
+                callback.onFrame(buffer, timestamp - firstTimestamp);
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "Replay stopped.");
+        }
+    }
+
+    private int slotOf(ByteBuffer buffer) {
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            if (mBuffers[i] == buffer) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the header of a recording.
+     */
+    public static void writeHeader(DataOutput out, int width, int height, int rotation) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(rotation);
+    }
+
+    /**
+     * Appends a frame to a recording.
+     *
+     * @param data the NV21 frame, at least width * height * 3 / 2 bytes of which are written
+     */
+    public static void writeFrame(DataOutput out, long timestampMillis, byte[] data, int width, int height)
+            throws IOException {
+        out.writeLong(timestampMillis);
+        out.write(data, 0, width * height * 3 / 2);
+    }
+}
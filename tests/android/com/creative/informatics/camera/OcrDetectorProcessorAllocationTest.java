@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.creative.informatics.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import com.creative.informatics.ui.GraphicOverlay;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.text.Text;
+import com.google.android.gms.vision.text.TextBlock;
+import com.google.android.gms.vision.text.TextRecognizer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that extracting the fields of a bill held in front of the camera allocates nothing
+ * once warmed up.
+ * <p/>
+ * The frames are real detections of a rendered bill at two positions, far enough apart across
+ * the fingerprint grid that no frame is skipped as unchanged, and close enough for the blocks
+ * to stay on their tracks, so every frame goes through the whole extraction while the text
+ * stays the same.  Allocations are counted with {@link Debug#getThreadAllocCount()}; the
+ * detected objects themselves may allocate when asked for their boxes, so the count of a pass
+ * over just those accessors is allowed for.
+ * <p/>
+ * An instrumented test: copy it into the androidTest sources of an app that includes the
+ * plugin, and run it on a device with Google Play services.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OcrDetectorProcessorAllocationTest {
+
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int COUNTED_FRAMES = 1000;
+    // Horizontal distance between the two frames: every box edge moves to another cell of the
+    // fingerprint grid, while the wide lines still overlap enough to keep their tracks.
+    private static final int SHIFT = 2 << ComponentIndex.FINGERPRINT_GRID_SHIFT;
+
+    private static final String[] BILL = {
+            "Account Number 12345678",
+            "Total Due $123.45",
+            "Due Date 12 Mar 2019",
+            "Service Address",
+            "12 Main St",
+            "Richmond VIC 3121",
+    };
+
+    private Context mContext;
+    private TextRecognizer mRecognizer;
+    private final SparseArray<TextBlock>[] mFrames = newFrames();
+
+    @SuppressWarnings("unchecked")
+    private static SparseArray<TextBlock>[] newFrames() {
+        return new SparseArray[2];
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mRecognizer = new TextRecognizer.Builder(mContext).build();
+        assumeTrue("Text recognizer not available", mRecognizer.isOperational());
+
+        mFrames[0] = detect(0);
+        mFrames[1] = detect(SHIFT);
+        assumeTrue("Shifted bill read differently", sameText(mFrames[0], mFrames[1]));
+    }
+
+    @After
+    public void tearDown() {
+        if (mRecognizer != null) mRecognizer.release();
+    }
+
+    @Test
+    public void steadyStateExtractionDoesNotAllocate() throws Exception {
+        final OcrDetectorProcessor processor = new OcrDetectorProcessor(
+                new GraphicOverlay<OcrGraphic>(mContext, null), new OcrConfig(options()));
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            processor.consume(mFrames[i & 1]);
+        }
+
+        int extraction = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < COUNTED_FRAMES; i++) processor.consume(mFrames[i & 1]);
+            }
+        });
+        int accessors = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < COUNTED_FRAMES; i++) readAccessors(mFrames[i & 1]);
+            }
+        });
+        processor.release();
+
+        assertEquals(0, processor.getSkippedFrameCount());
+        assertEquals("12345678", processor.getResult().getValue(0));
+        assertTrue(extraction + " allocations in " + COUNTED_FRAMES + " frames, "
+                + accessors + " of them by the detected objects", extraction <= accessors);
+    }
+
+    @Test
+    public void extractionStageDoesNotAllocate() throws Exception {
+        final ExtractionStage<TextBlock> stage = new ExtractionStage<TextBlock>(
+                new ExtractionStage.Consumer<TextBlock>() {
+                    @Override
+                    public void consume(SparseArray<TextBlock> items) {
+                    }
+
+                    @Override
+                    public void release() {
+                    }
+                });
+        final Detector.Detections<TextBlock>[] detections = newDetections();
+        for (int i = 0; i < detections.length; i++) {
+            detections[i] = new Detector.Detections<TextBlock>(mFrames[i], null, true);
+        }
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            stage.receiveDetections(detections[i & 1]);
+        }
+
+        int handOff = countAllocations(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < COUNTED_FRAMES; i++) stage.receiveDetections(detections[i & 1]);
+            }
+        });
+        stage.release();
+
+        assertEquals(0, handOff);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Detector.Detections<TextBlock>[] newDetections() {
+        return new Detector.Detections[2];
+    }
+
+    private static int countAllocations(Runnable work) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            work.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * Calls what the processor calls on the detected objects of a frame.
+     */
+    private static void readAccessors(SparseArray<TextBlock> blocks) {
+        for (int b = 0; b < blocks.size(); b++) {
+            TextBlock block = blocks.valueAt(b);
+            block.getValue();
+            List<? extends Text> components = block.getComponents();
+            for (int j = 0; j < components.size(); j++) {
+                components.get(j).getValue();
+                components.get(j).getBoundingBox();
+            }
+        }
+    }
+
+    private static JSONObject options() throws Exception {
+        JSONArray dictionary = new JSONArray()
+                .put(entry("Account Number", "account number", "\\d{8}"))
+                .put(entry("Total Due", "total due", "\\$\\d+\\.\\d\\d"))
+                .put(entry("Due Date", "due date", "\\d{1,2} [a-z]{3} \\d{4}"))
+                .put(entry("Service Address", "service address", null));
+        return new JSONObject().put("dictionary", dictionary).put("debug", false);
+    }
+
+    private static JSONObject entry(String name, String keyword, String patterns) throws Exception {
+        JSONObject entry = new JSONObject()
+                .put("Name", name)
+                .put("Keywords", new JSONArray().put(keyword));
+        return patterns == null ? entry : entry.put("Patterns", patterns);
+    }
+
+    private SparseArray<TextBlock> detect(int shift) {
+        Bitmap bitmap = Bitmap.createBitmap(1280, 720, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(36);
+        for (int i = 0; i < BILL.length; i++) {
+            // A gap between the first three lines and the address keeps them in separate blocks.
+            int gap = i < 3 ? 0 : 60;
+            canvas.drawText(BILL[i], 80 + shift, 100 + 60 * i + gap, paint);
+        }
+        return mRecognizer.detect(new Frame.Builder().setBitmap(bitmap).build());
+    }
+
+    private static boolean sameText(SparseArray<TextBlock> a, SparseArray<TextBlock> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.valueAt(i).getValue().equals(b.valueAt(i).getValue())) return false;
+        }
+        return true;
+    }
+}
@@ -23,13 +23,54 @@
  * Encapsulates all Ocr operation configuration options.
  */
 var OcrOptions = function () {
-    // Upper limit of videos user can record. Value must be equal or greater than 1.
+    // Dictionary of the fields to read, as a JSON array of entries with "Name", "Mandatory", "Keywords" and "Patterns".
+    // An entry may list the "Strategies" used to find its value next to the keyword, in order, out of
+    // "text" (the keyword line), "right" (the line on its right) and "below" (the line under it). All three by default.
+    // The value is read with the first strategy that finds one. The listed order is only the starting order: the
+    // strategy that found the value most often in recent frames is tried first, so it wins when several would find one.
+    // An entry may also set "MaxEdits" (up to 3) to find its keywords when misread by that many characters,
+    // e.g. "Tota1 Due". Keywords are allowed one edit per 4 characters.
     this.dictionary = "[]";
-    // Country name to use to determine the address for Service Address when no value is determined from keywords
+    // Country name to use to determine the address for Service Address when no value is determined from keywords.
+    // Postal codes are bundled for "Australia", "New Zealand", "United Kingdom", "United States" and "Canada".
     this.country = "Australia";
 
+    // Number of steps a value pattern may take on one line of text before it is given up as not matching.
+    // Protects recognition from patterns that backtrack catastrophically.
+    this.patternStepBudget = 100000;
+
+    // Look for the values of the dictionary fields on several threads when at least 16 of them are on screen.
+    // Only pays off with large dictionaries on devices with 4 or more cores.
+    this.parallelFields = false;
+
+    // Region of the camera view to read text in, as fractions of its width and height, e.g.
+    // {left: 0.05, top: 0.25, right: 0.95, bottom: 0.75}. It is outlined as a guide to aim at the bill,
+    // and text outside of it is not recognized, which makes recognition faster. The whole view if null.
+    this.roi = null;
+
+    // Longest side, in pixels, of the frames text is recognized in. The camera view keeps its full resolution
+    // while the frames (or their roi) are shrunk by a whole factor to fit, e.g. 960 recognizes a 1920x1080
+    // preview at 960x540, which is about 4 times faster. 0 recognizes at the preview resolution.
+    this.detectionSize = 0;
+
+    // Bounds of the number of frames per second text is recognized in. Within them the rate follows how long
+    // recognition takes on the device, keeping it busy about 3/4 of the time: fast phones read more often,
+    // slow ones skip frames instead of falling behind.
+    this.minFps = 1;
+    this.maxFps = 8;
+
     // Debug mode or not
     this.debug = false;
+
+    // Extractors to run: "dictionary" reads the fields of the dictionary, "amounts" reads bill dates
+    // and amounts ("Due Date", "Total Due", ...) from their usual captions. Either or both.
+    // The amount fields and their captions are listed in res/raw/ocr_amount_fields.txt.
+    this.extractors = ["dictionary"];
+
+    // Finish the recognition on its own, without the capture button, once every Mandatory field is stable
+    this.autoFinish = false;
+    // Number of consecutive frames a Mandatory field has to be read with the same value to count as stable
+    this.autoFinishFrames = 3;
 };
 
 module.exports = OcrOptions;